@@ -20,13 +20,11 @@ import com.google.cloud.bigquery.Schema;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.bigquery.connector.common.BigQueryClient;
-import com.google.cloud.bigquery.connector.common.BigQueryClientModule;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry;
 import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
-import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConnectorModule;
 import com.google.cloud.hive.bigquery.connector.output.BigQueryOutputCommitter;
 import com.google.cloud.hive.bigquery.connector.utils.HiveUtils;
-import com.google.inject.Guice;
-import com.google.inject.Injector;
+import com.google.cloud.hive.bigquery.connector.utils.TableInfoCache;
 import java.io.IOException;
 import java.util.*;
 import org.apache.hadoop.conf.Configuration;
@@ -83,6 +81,18 @@ public class BigQueryMetaHook extends DefaultHiveMetaHook {
     for (FieldSchema schema : fieldSchemas) {
       TypeInfo typeInfo = TypeInfoUtils.getTypeInfoFromTypeString(schema.getType());
       validateTypeInfo(typeInfo);
+      // The partition pseudo-columns must have the same type as in BigQuery so that filters on
+      // them can be pushed down
+      String expectedType = null;
+      if (schema.getName().equalsIgnoreCase(Constants.PARTITION_TIME_PSEUDO_COLUMN)) {
+        expectedType = serdeConstants.TIMESTAMP_TYPE_NAME;
+      } else if (schema.getName().equalsIgnoreCase(Constants.PARTITION_DATE_PSEUDO_COLUMN)) {
+        expectedType = serdeConstants.DATE_TYPE_NAME;
+      }
+      if (expectedType != null && !typeInfo.getTypeName().equals(expectedType)) {
+        throw new MetaException(
+            "The " + schema.getName() + " pseudo-column must be of type " + expectedType);
+      }
     }
   }
 
@@ -112,10 +122,15 @@ public class BigQueryMetaHook extends DefaultHiveMetaHook {
               + String.join(", ", missingProperties));
     }
 
-    // Check compatibility with BigQuery features
-    // TODO: accept DATE column 1 level partitioning
+    // Check compatibility with BigQuery features. Hive can't list the partitions of a table
+    // managed by a storage handler, so BigQuery partitions are instead pruned by the filters
+    // pushed down on the partitioning column, or on the "_partitiontime" and "_partitiondate"
+    // pseudo-columns for ingestion-time partitioned tables.
     if (table.getPartitionKeysSize() > 0) {
-      throw new MetaException("Creation of Partition table is not supported.");
+      throw new MetaException(
+          "Creation of Partition table is not supported. Declare the BigQuery table's"
+              + " partitioning column, or the _partitiontime or _partitiondate pseudo-column"
+              + " for ingestion-time partitioning, as a regular column instead.");
     }
 
     if (table.getSd().getBucketColsSize() > 0) {
@@ -172,37 +187,41 @@ public class BigQueryMetaHook extends DefaultHiveMetaHook {
         conf.get(HiveBigQueryConfig.WRITE_METHOD_KEY, HiveBigQueryConfig.WRITE_METHOD_DIRECT);
     if (writeMethod.equals(HiveBigQueryConfig.WRITE_METHOD_DIRECT)) {
       // Get an instance of the BigQuery client
-      Injector injector =
-          Guice.createInjector(
-              new BigQueryClientModule(), new HiveBigQueryConnectorModule(conf, tableParameters));
-      BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
+      try (BigQueryClientRegistry.Lease lease =
+          BigQueryClientRegistry.acquire(conf, tableParameters)) {
+        BigQueryClient bqClient = lease.getInjector().getInstance(BigQueryClient.class);
+        HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, tableParameters);
 
-      // Retrieve the BigQuery schema of the final destination table
-      Schema bigQuerySchema = bqClient.getTable(jobInfo.getTableId()).getDefinition().getSchema();
+        // Retrieve the BigQuery schema of the final destination table
+        Schema bigQuerySchema =
+            TableInfoCache.getTable(bqClient, config, jobInfo.getTableId())
+                .getDefinition()
+                .getSchema();
 
-      // Special case: 'INSERT OVERWRITE' operation while using the 'direct'
-      // write method. In this case, we will stream-write to a temporary table
-      // and then finally overwrite the final destination table with the temporary
-      // table's contents. This special case doesn't apply to the 'indirect'
-      // write method, which doesn't need a temporary table -- instead that method
-      // uses the 'WRITE_TRUNCATE' option available in the BigQuery Load Job API when
-      // loading the Avro files into the BigQuery table (see more about that in the
-      // `IndirectOutputCommitter` class).
-      if (overwrite) {
-        // Set the final destination table as the job's original table
-        jobInfo.setFinalTable(tableName);
-        // Create a temporary table with the same schema
-        // TODO: It'd be useful to add a description to the table explaining that it was
-        //  created as a temporary table for a Hive query.
-        TableInfo tableInfo =
-            bqClient.createTempTable(
-                TableId.of(
-                    jobInfo.getProject(),
-                    jobInfo.getDataset(),
-                    tableName + "-" + HiveUtils.getHiveId(conf) + "-"),
-                bigQuerySchema);
-        // Set the temp table as the job's output table
-        jobInfo.setTable(tableInfo.getTableId().getTable());
+        // Special case: 'INSERT OVERWRITE' operation while using the 'direct'
+        // write method. In this case, we will stream-write to a temporary table
+        // and then finally overwrite the final destination table with the temporary
+        // table's contents. This special case doesn't apply to the 'indirect'
+        // write method, which doesn't need a temporary table -- instead that method
+        // uses the 'WRITE_TRUNCATE' option available in the BigQuery Load Job API when
+        // loading the Avro files into the BigQuery table (see more about that in the
+        // `IndirectOutputCommitter` class).
+        if (overwrite) {
+          // Set the final destination table as the job's original table
+          jobInfo.setFinalTable(tableName);
+          // Create a temporary table with the same schema
+          // TODO: It'd be useful to add a description to the table explaining that it was
+          //  created as a temporary table for a Hive query.
+          TableInfo tableInfo =
+              bqClient.createTempTable(
+                  TableId.of(
+                      jobInfo.getProject(),
+                      jobInfo.getDataset(),
+                      tableName + "-" + HiveUtils.getHiveId(conf) + "-"),
+                  bigQuerySchema);
+          // Set the temp table as the job's output table
+          jobInfo.setTable(tableInfo.getTableId().getTable());
+        }
       }
     } else {
       throw new MetaException("Invalid write method: " + writeMethod);
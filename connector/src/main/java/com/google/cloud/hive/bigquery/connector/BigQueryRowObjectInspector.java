@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector;
+
+import com.google.cloud.hive.bigquery.connector.input.LazyRow;
+import java.util.List;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+
+/**
+ * Object inspector for the rows produced by the BigQuery record readers. Rows may either be plain
+ * arrays of Writables or {@link LazyRow} instances, in which case fields are only converted when
+ * Hive asks for them.
+ */
+public class BigQueryRowObjectInspector extends StandardStructObjectInspector {
+
+  public BigQueryRowObjectInspector(
+      List<String> structFieldNames, List<ObjectInspector> structFieldObjectInspectors) {
+    super(structFieldNames, structFieldObjectInspectors);
+  }
+
+  @Override
+  public Object getStructFieldData(Object data, StructField fieldRef) {
+    if (data instanceof LazyRow) {
+      return ((LazyRow) data).getField(((MyField) fieldRef).getFieldID());
+    }
+    return super.getStructFieldData(data, fieldRef);
+  }
+
+  @Override
+  public List<Object> getStructFieldsDataAsList(Object data) {
+    if (data instanceof LazyRow) {
+      return ((LazyRow) data).getFields();
+    }
+    return super.getStructFieldsDataAsList(data);
+  }
+}
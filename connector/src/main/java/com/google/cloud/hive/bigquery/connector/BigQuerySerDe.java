@@ -21,6 +21,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.*;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.*;
 import org.apache.hadoop.io.ObjectWritable;
@@ -60,7 +61,15 @@ public class BigQuerySerDe extends AbstractSerDe {
   @Override
   public void initialize(@Nullable Configuration configuration, Properties tableProperties)
       throws SerDeException {
-    this.rowObjectInspector = getRowObjectInspector(tableProperties);
+    // Wrap the standard inspector's fields into an inspector that also understands lazy rows
+    StructObjectInspector standardObjectInspector = getRowObjectInspector(tableProperties);
+    List<String> fieldNames = new ArrayList<>();
+    List<ObjectInspector> fieldObjectInspectors = new ArrayList<>();
+    for (StructField field : standardObjectInspector.getAllStructFieldRefs()) {
+      fieldNames.add(field.getFieldName());
+      fieldObjectInspectors.add(field.getFieldObjectInspector());
+    }
+    this.rowObjectInspector = new BigQueryRowObjectInspector(fieldNames, fieldObjectInspectors);
   }
 
   @Override
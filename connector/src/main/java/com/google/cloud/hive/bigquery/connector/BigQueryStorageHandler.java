@@ -18,14 +18,16 @@ package com.google.cloud.hive.bigquery.connector;
 import com.google.cloud.bigquery.storage.v1.DataFormat;
 import com.google.cloud.bigquery.storage.v1.ProtoSchema;
 import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
-import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConnectorModule;
+import com.google.cloud.hive.bigquery.connector.input.BigQueryFilters;
 import com.google.cloud.hive.bigquery.connector.input.arrow.BigQueryArrowInputFormat;
 import com.google.cloud.hive.bigquery.connector.input.avro.BigQueryAvroInputFormat;
 import com.google.cloud.hive.bigquery.connector.output.BigQueryOutputCommitter;
 import com.google.cloud.hive.bigquery.connector.output.BigQueryOutputFormat;
+import com.google.cloud.hive.bigquery.connector.output.direct.DirectUtils;
 import com.google.cloud.hive.bigquery.connector.utils.proto.ProtoSchemaConverter;
-import com.google.inject.Guice;
-import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
@@ -35,10 +37,12 @@ import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.metadata.HiveStorageHandler;
 import org.apache.hadoop.hive.ql.metadata.HiveStoragePredicateHandler;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDescUtils;
 import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.security.authorization.DefaultHiveAuthorizationProvider;
 import org.apache.hadoop.hive.ql.security.authorization.HiveAuthorizationProvider;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.AbstractSerDe;
 import org.apache.hadoop.hive.serde2.Deserializer;
@@ -54,8 +58,7 @@ public class BigQueryStorageHandler implements HiveStoragePredicateHandler, Hive
 
   @Override
   public Class<? extends InputFormat> getInputFormatClass() {
-    Injector injector = Guice.createInjector(new HiveBigQueryConnectorModule(conf));
-    DataFormat readDataFormat = injector.getInstance(HiveBigQueryConfig.class).getReadDataFormat();
+    DataFormat readDataFormat = HiveBigQueryConfig.from(conf, null).getReadDataFormat();
     if (readDataFormat.equals(DataFormat.ARROW)) {
       return BigQueryArrowInputFormat.class;
     } else if (readDataFormat.equals(DataFormat.AVRO)) {
@@ -87,13 +90,53 @@ public class BigQueryStorageHandler implements HiveStoragePredicateHandler, Hive
   @Override
   public DecomposedPredicate decomposePredicate(
       JobConf jobConf, Deserializer deserializer, ExprNodeDesc exprNodeDesc) {
-    // TODO: See if we can dissociate the pushed predicates from the residual ones
+    // Only push down the conjuncts that BigQuery can evaluate exactly like Hive. Hive keeps
+    // evaluating the other ones, so they don't have to be fetched as part of the pushed filter.
+    List<ExprNodeDesc> pushed = new ArrayList<>();
+    List<ExprNodeDesc> residual = new ArrayList<>();
+    for (ExprNodeDesc conjunct : ExprNodeDescUtils.split(exprNodeDesc)) {
+      if (conjunct instanceof ExprNodeGenericFuncDesc
+          && BigQueryFilters.translate(conjunct) != null) {
+        pushed.add(conjunct);
+      } else {
+        // Conjuncts on the partition pseudo-columns that stay with Hive are rejected when the
+        // splits are created, since Hive would evaluate them against null values
+        residual.add(conjunct);
+      }
+    }
+    if (pushed.isEmpty()) {
+      return null;
+    }
     DecomposedPredicate predicate = new DecomposedPredicate();
-    predicate.residualPredicate = (ExprNodeGenericFuncDesc) exprNodeDesc;
-    predicate.pushedPredicate = (ExprNodeGenericFuncDesc) exprNodeDesc;
+    predicate.pushedPredicate = (ExprNodeGenericFuncDesc) ExprNodeDescUtils.mergePredicates(pushed);
+    String engine = HiveConf.getVar(jobConf, HiveConf.ConfVars.HIVE_EXECUTION_ENGINE);
+    if (engine.equals("mr")) {
+      // The MR engine only pushes the filter to the input format when the table is scanned by a
+      // single alias, so the filters of self-joins or UNION ALLs would be lost. Hive must then
+      // evaluate the pushed conjuncts too, except the ones on the partition pseudo-columns, which
+      // it would evaluate against null values since the pseudo-columns aren't read.
+      for (ExprNodeDesc conjunct : pushed) {
+        if (!isOnPartitionPseudoColumns(conjunct)) {
+          residual.add(conjunct);
+        }
+      }
+    }
+    if (!residual.isEmpty()) {
+      ExprNodeDesc residualPredicate = ExprNodeDescUtils.mergePredicates(residual);
+      // Let Hive evaluate the whole expression if the residual part can't be expressed on its own
+      predicate.residualPredicate =
+          residualPredicate instanceof ExprNodeGenericFuncDesc
+              ? (ExprNodeGenericFuncDesc) residualPredicate
+              : (ExprNodeGenericFuncDesc) exprNodeDesc;
+    }
     return predicate;
   }
 
+  private static boolean isOnPartitionPseudoColumns(ExprNodeDesc conjunct) {
+    return conjunct.getCols() != null
+        && !Collections.disjoint(conjunct.getCols(), Constants.PARTITION_PSEUDO_COLUMNS);
+  }
+
   @Override
   public void setConf(Configuration configuration) {
     this.conf = configuration;
@@ -139,7 +182,8 @@ public class BigQueryStorageHandler implements HiveStoragePredicateHandler, Hive
     if (writeMethod.equals(HiveBigQueryConfig.WRITE_METHOD_DIRECT)) {
       // Figure out the table's proto schema
       StructObjectInspector rowObjectInspector =
-          BigQuerySerDe.getRowObjectInspector(tableProperties);
+          DirectUtils.getWrittenRowObjectInspector(
+              BigQuerySerDe.getRowObjectInspector(tableProperties));
       Descriptors.Descriptor descriptor;
       try {
         descriptor = ProtoSchemaConverter.toDescriptor(rowObjectInspector);
@@ -159,7 +203,33 @@ public class BigQueryStorageHandler implements HiveStoragePredicateHandler, Hive
 
   @Override
   public void configureInputJobProperties(TableDesc tableDesc, Map<String, String> jobProperties) {
-    // Do nothing
+    // The input splits only carry their own streams, so the tasks rebuild the session-wide
+    // state (table, credentials, read options, columns) from these job properties.
+    Properties tableProperties = tableDesc.getProperties();
+    for (String key : tableProperties.stringPropertyNames()) {
+      if (key.startsWith("bq.")
+          || key.equals(serdeConstants.LIST_COLUMNS)
+          || key.equals(serdeConstants.LIST_COLUMN_TYPES)
+          || key.equals(serdeConstants.COLUMN_NAME_DELIMITER)) {
+        jobProperties.put(key, tableProperties.getProperty(key));
+      }
+    }
+    // Pin all the scans of the query to the time at which the query started, so that they all
+    // see the same data, unless the tables are already read as of a given time
+    String snapshotAtQueryStart =
+        tableProperties.getProperty(
+            HiveBigQueryConfig.READ_SNAPSHOT_AT_QUERY_START_KEY,
+            conf.get(HiveBigQueryConfig.READ_SNAPSHOT_AT_QUERY_START_KEY, "false"));
+    SessionState sessionState = SessionState.get();
+    if (Boolean.parseBoolean(snapshotAtQueryStart)
+        && !jobProperties.containsKey(HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY)
+        && conf.get(HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY) == null
+        && sessionState != null
+        && sessionState.getQueryCurrentTimestamp() != null) {
+      jobProperties.put(
+          HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY,
+          sessionState.getQueryCurrentTimestamp().toString());
+    }
   }
 
   @Override
@@ -32,6 +32,14 @@ public class Constants {
   public static final int MAX_BIGQUERY_NESTED_DEPTH = 15;
   public static final String MAPTYPE_ERROR_MESSAGE = "MapType is unsupported.";
 
+  // Pseudo-columns of BigQuery's ingestion-time partitioned tables. Hive tables can declare them
+  // to filter the partitions that are read, but their values can't be read or written: they are
+  // null when all the columns are read, and must be left out of the written rows.
+  public static final String PARTITION_TIME_PSEUDO_COLUMN = "_partitiontime";
+  public static final String PARTITION_DATE_PSEUDO_COLUMN = "_partitiondate";
+  public static final List<String> PARTITION_PSEUDO_COLUMNS =
+      ImmutableList.of(PARTITION_TIME_PSEUDO_COLUMN, PARTITION_DATE_PSEUDO_COLUMN);
+
   public static final List<PrimitiveObjectInspector.PrimitiveCategory> SUPPORTED_HIVE_PRIMITIVES =
       ImmutableList.of(
           PrimitiveObjectInspector.PrimitiveCategory.LONG,
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.config;
+
+import com.google.api.gax.core.BackgroundResource;
+import com.google.api.gax.rpc.HeaderProvider;
+import com.google.cloud.bigquery.connector.common.BigQueryClientFactory;
+import com.google.cloud.bigquery.connector.common.BigQueryClientModule;
+import com.google.cloud.bigquery.connector.common.BigQueryConfig;
+import com.google.cloud.bigquery.connector.common.BigQueryCredentialsSupplier;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
+import com.google.inject.util.Modules;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.com.google.common.base.Throwables;
+import repackaged.by.hivebqconnector.com.google.common.base.Ticker;
+import repackaged.by.hivebqconnector.com.google.common.cache.Cache;
+import repackaged.by.hivebqconnector.com.google.common.cache.CacheBuilder;
+import repackaged.by.hivebqconnector.com.google.common.cache.RemovalNotification;
+import repackaged.by.hivebqconnector.com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Process-wide registry of the Guice injectors that provide the BigQuery clients. Injectors are
+ * shared by all the callers that have the same connection settings (credentials, endpoint, proxy,
+ * projects, etc.), so that the clients' credentials, HTTP transports and gRPC channels are set up
+ * only once per JVM, e.g. across queries in HiveServer2 or across tasks in reused Tez containers.
+ *
+ * <p>Callers {@link #acquire} a lease on an injector and close the lease once they're done with the
+ * clients that they got from it. The registry is bounded: the least recently used injectors are
+ * evicted once there are more than {@link #MAX_INJECTORS} of them, and injectors that haven't been
+ * requested for {@link #INJECTOR_EXPIRATION_MINUTES} are evicted too. The read and write clients
+ * created by an evicted injector are closed when its last lease is released, which releases their
+ * gRPC channels and threads without interrupting the reads and writes that are still using them.
+ *
+ * <p>The access token isn't part of the registry's key, since it is refreshed regularly and every
+ * new token would otherwise register new clients. Instead, an injector that was created with
+ * another token than the caller's is replaced.
+ *
+ * <p>The injectors must only be used to retrieve client objects (e.g. BigQueryClient or
+ * BigQueryClientFactory). The table-specific settings must be read from a HiveBigQueryConfig built
+ * for the current call with {@link HiveBigQueryConfig#from}.
+ */
+public class BigQueryClientRegistry {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BigQueryClientRegistry.class);
+
+  // Enough for the distinct connection settings used by a busy HiveServer2
+  static final long MAX_INJECTORS = 100;
+
+  // Idle injectors are only kept around to be reused by later queries
+  static final long INJECTOR_EXPIRATION_MINUTES = 6 * 60;
+
+  private static final Cache<List<Object>, RegisteredClients> injectors =
+      createCache(MAX_INJECTORS, INJECTOR_EXPIRATION_MINUTES, Ticker.systemTicker());
+
+  private BigQueryClientRegistry() {}
+
+  @VisibleForTesting
+  static Cache<List<Object>, RegisteredClients> createCache(
+      long maximumSize, long expirationMinutes, Ticker ticker) {
+    return CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterAccess(expirationMinutes, TimeUnit.MINUTES)
+        .ticker(ticker)
+        .removalListener(
+            (RemovalNotification<List<Object>, RegisteredClients> notification) ->
+                notification.getValue().evict())
+        .build();
+  }
+
+  public static Lease acquire(Configuration conf) {
+    return acquire(conf, null);
+  }
+
+  public static Lease acquire(Configuration conf, Map<String, String> tableParameters) {
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, tableParameters);
+    List<Object> connectionKey = config.getConnectionKey();
+    return acquire(
+        injectors,
+        config.getClientKey(),
+        connectionKey,
+        () -> new RegisteredClients(conf, tableParameters, connectionKey));
+  }
+
+  @VisibleForTesting
+  static Lease acquire(
+      Cache<List<Object>, RegisteredClients> cache,
+      List<Object> clientKey,
+      List<Object> connectionKey,
+      Callable<RegisteredClients> loader) {
+    while (true) {
+      RegisteredClients registered;
+      try {
+        registered = cache.get(clientKey, loader);
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new RuntimeException(e.getCause());
+      }
+      if (!registered.getConnectionKey().equals(connectionKey)) {
+        // The injector was created with another access token, which may have expired by now
+        cache.asMap().remove(clientKey, registered);
+        continue;
+      }
+      if (registered.retain()) {
+        return new Lease(registered);
+      }
+      // The injector was evicted in the meantime, so its clients are about to be closed
+    }
+  }
+
+  /**
+   * A reference to an injector from the registry. The clients retrieved from the injector must not
+   * be used anymore once the lease is closed.
+   */
+  public static class Lease implements AutoCloseable {
+
+    private final RegisteredClients registeredClients;
+    private boolean released = false;
+
+    private Lease(RegisteredClients registeredClients) {
+      this.registeredClients = registeredClients;
+    }
+
+    public Injector getInjector() {
+      return registeredClients.getInjector();
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!released) {
+        released = true;
+        registeredClients.release();
+      }
+    }
+  }
+
+  /**
+   * An injector along with the read and write clients that it has created, and the number of leases
+   * that are still using them.
+   */
+  @VisibleForTesting
+  static class RegisteredClients {
+
+    private final Injector injector;
+    private final List<Object> connectionKey;
+    private final List<BackgroundResource> clients = new ArrayList<>();
+    private int numLeases = 0;
+    private boolean evicted = false;
+    private boolean closed = false;
+
+    RegisteredClients(
+        Configuration conf, Map<String, String> tableParameters, List<Object> connectionKey) {
+      this.connectionKey = connectionKey;
+      this.injector =
+          Guice.createInjector(
+              Modules.override(new BigQueryClientModule())
+                  .with(
+                      binder -> {
+                        binder.bind(RegisteredClients.class).toInstance(this);
+                        binder
+                            .bind(BigQueryClientFactory.class)
+                            .to(TrackingBigQueryClientFactory.class)
+                            .in(Scopes.SINGLETON);
+                      }),
+              new HiveBigQueryConnectorModule(conf, tableParameters));
+    }
+
+    @VisibleForTesting
+    RegisteredClients(Injector injector, List<Object> connectionKey) {
+      this.injector = injector;
+      this.connectionKey = connectionKey;
+    }
+
+    Injector getInjector() {
+      return injector;
+    }
+
+    List<Object> getConnectionKey() {
+      return connectionKey;
+    }
+
+    /** Registers a new lease, unless the injector has already been evicted. */
+    synchronized boolean retain() {
+      if (evicted) {
+        return false;
+      }
+      numLeases++;
+      return true;
+    }
+
+    synchronized void release() {
+      numLeases--;
+      if (evicted && numLeases == 0) {
+        closeClients();
+      }
+    }
+
+    /** Closes the clients once they aren't used by any lease anymore. */
+    synchronized void evict() {
+      evicted = true;
+      if (numLeases == 0) {
+        closeClients();
+      }
+    }
+
+    synchronized void track(BackgroundResource client) {
+      if (closed) {
+        // The client was created with an injector that was retrieved from a released lease
+        closeClient(client);
+        return;
+      }
+      clients.add(client);
+    }
+
+    private void closeClients() {
+      closed = true;
+      for (BackgroundResource client : clients) {
+        closeClient(client);
+      }
+      clients.clear();
+    }
+
+    private static void closeClient(BackgroundResource client) {
+      try {
+        client.close();
+      } catch (Exception e) {
+        LOG.warn("Failed to close BigQuery client", e);
+      }
+    }
+  }
+
+  /**
+   * Client factory that records the clients that it creates, so that they can be closed once their
+   * injector is evicted from the registry and isn't leased anymore.
+   */
+  static class TrackingBigQueryClientFactory extends BigQueryClientFactory {
+
+    private final transient RegisteredClients registeredClients;
+    private transient BigQueryReadClient trackedReadClient;
+    private transient BigQueryWriteClient trackedWriteClient;
+
+    @Inject
+    TrackingBigQueryClientFactory(
+        BigQueryCredentialsSupplier credentialsSupplier,
+        HeaderProvider headerProvider,
+        BigQueryConfig bqConfig,
+        RegisteredClients registeredClients) {
+      super(credentialsSupplier, headerProvider, bqConfig);
+      this.registeredClients = registeredClients;
+    }
+
+    @Override
+    public synchronized BigQueryReadClient getBigQueryReadClient() {
+      BigQueryReadClient client = super.getBigQueryReadClient();
+      if (client != trackedReadClient) {
+        trackedReadClient = client;
+        registeredClients.track(client);
+      }
+      return client;
+    }
+
+    @Override
+    public synchronized BigQueryWriteClient getBigQueryWriteClient() {
+      BigQueryWriteClient client = super.getBigQueryWriteClient();
+      if (client != trackedWriteClient) {
+        trackedWriteClient = client;
+        registeredClients.track(client);
+      }
+      return client;
+    }
+  }
+}
@@ -29,9 +29,14 @@ import com.google.cloud.bigquery.connector.common.BigQueryProxyConfig;
 import com.google.cloud.bigquery.connector.common.ReadSessionCreatorConfig;
 import com.google.cloud.bigquery.connector.common.ReadSessionCreatorConfigBuilder;
 import com.google.cloud.bigquery.storage.v1.ArrowSerializationOptions.CompressionCodec;
+import com.google.cloud.bigquery.storage.v1.CreateReadSessionRequest;
 import com.google.cloud.bigquery.storage.v1.DataFormat;
 import com.google.cloud.hive.bigquery.connector.utils.HiveUtils;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
@@ -43,6 +48,8 @@ import org.threeten.bp.Duration;
 import repackaged.by.hivebqconnector.com.google.common.base.Optional;
 import repackaged.by.hivebqconnector.com.google.common.collect.ImmutableList;
 import repackaged.by.hivebqconnector.com.google.common.collect.ImmutableMap;
+import repackaged.by.hivebqconnector.com.google.protobuf.InvalidProtocolBufferException;
+import repackaged.by.hivebqconnector.com.google.protobuf.Timestamp;
 
 /** Main config class to interact with the bigquery-common-connector. */
 @SuppressWarnings("unchecked")
@@ -66,6 +73,22 @@ public class HiveBigQueryConfig
   public static final String WORK_DIR_PARENT_PATH_KEY = "bq.work.dir.parent.path";
   public static final String WORK_DIR_NAME_PREFIX_KEY = "bq.work.dir.name.prefix";
   public static final String READ_DATA_FORMAT_KEY = "bq.read.data.format";
+  public static final String READ_REUSE_OBJECTS_KEY = "bq.read.reuse.objects";
+  public static final String READ_LAZY_ROWS_KEY = "bq.read.lazy.rows";
+  public static final String READ_BACKGROUND_THREADS_KEY = "bq.read.background.threads";
+  public static final String READ_PREBUFFER_RESPONSES_KEY = "bq.read.prebuffer.responses";
+  public static final String READ_SPLIT_TARGET_SIZE_KEY = "bq.read.split.target.size";
+  public static final String READ_MIN_STREAMS_KEY = "bq.read.min.streams";
+  public static final String READ_SESSION_CACHE_TTL_KEY = "bq.read.session.cache.ttl.seconds";
+  public static final String CACHE_EXPIRATION_TIME_KEY = "bq.cache.expiration.time.minutes";
+  public static final String TABLE_INFO_CACHE_EXPIRATION_KEY =
+      "bq.table.info.cache.expiration.minutes";
+  public static final String READ_COUNT_FROM_METADATA_KEY = "bq.read.count.from.metadata";
+  public static final String READ_SNAPSHOT_TIME_KEY = "bq.read.snapshot.time";
+  public static final String READ_SNAPSHOT_AT_QUERY_START_KEY = "bq.read.snapshot.at.query.start";
+  public static final String ARROW_COMPRESSION_CODEC_KEY = "bq.read.arrow.compression.codec";
+  public static final String ARROW_COMPRESSION_CODEC_FACTORY_KEY =
+      "bq.read.arrow.compression.codec.factory";
   public static final String CREDENTIALS_KEY_KEY = "bq.credentials.key";
   public static final String CREDENTIALS_FILE_KEY = "bq.credentials.file";
   public static final String ACCESS_TOKEN_KEY = "bq.access.token";
@@ -121,11 +144,31 @@ public class HiveBigQueryConfig
   Integer maxParallelism = null;
   private Optional<String> encodedCreateReadSessionRequest = empty();
   private int numBackgroundThreadsPerStream = 0;
+  // Whether readers return the same row and value objects for every record
+  private boolean readReuseObjects = false;
+  // Whether readers only convert the values that Hive actually accesses
+  private boolean readLazyRows = false;
   boolean pushAllFilters = true;
   private int numPrebufferReadRowsResponses = MIN_BUFFERED_RESPONSES_PER_STREAM;
   public static final int MIN_BUFFERED_RESPONSES_PER_STREAM = 1;
   private int numStreamsPerPartition = MIN_STREAMS_PER_PARTITION;
   public static final int MIN_STREAMS_PER_PARTITION = 1;
+  // Estimated number of bytes to read per split. Streams are grouped until they reach this size.
+  private long splitTargetSize = 0;
+  // Minimum number of streams to read from. Streams are split until there are that many.
+  private int minStreams = 0;
+  // How long read sessions can be reused across queries. Disabled if 0.
+  private long readSessionCacheTtlSeconds = 0;
+  private int cacheExpirationTimeInMinutes = DEFAULT_CACHE_EXPIRATION_IN_MINUTES;
+  // How long table metadata can be reused across lookups in the same process. Disabled if 0.
+  private int tableInfoCacheExpirationTimeInMinutes = 0;
+  // Whether scans that don't need any column, e.g. for COUNT(*), use the table's row count instead
+  // of reading the table. Disabled by default since the row count in the metadata ignores the
+  // table's row access policies, so users who can only see some of the rows would get the count of
+  // all the rows.
+  private boolean countFromMetadata = false;
+  // Point in time at which the tables are read, or the current time if absent
+  private Optional<Instant> snapshotTime = empty();
   private CompressionCodec arrowCompressionCodec = DEFAULT_ARROW_COMPRESSION_CODEC;
   static final CompressionCodec DEFAULT_ARROW_COMPRESSION_CODEC =
       CompressionCodec.COMPRESSION_UNSPECIFIED;
@@ -164,6 +207,86 @@ public class HiveBigQueryConfig
     } else {
       throw new RuntimeException("Invalid input read data format: " + readDataFormat);
     }
+    Optional<String> readReuseObjects = getAnyOption(READ_REUSE_OBJECTS_KEY, conf, tableParameters);
+    if (readReuseObjects.isPresent()) {
+      config.readReuseObjects = Boolean.parseBoolean(readReuseObjects.get());
+    }
+    Optional<String> readLazyRows = getAnyOption(READ_LAZY_ROWS_KEY, conf, tableParameters);
+    if (readLazyRows.isPresent()) {
+      config.readLazyRows = Boolean.parseBoolean(readLazyRows.get());
+    }
+    Optional<String> numBackgroundThreads =
+        getAnyOption(READ_BACKGROUND_THREADS_KEY, conf, tableParameters);
+    if (numBackgroundThreads.isPresent()) {
+      config.numBackgroundThreadsPerStream =
+          Math.max(0, Integer.parseInt(numBackgroundThreads.get()));
+    }
+    Optional<String> numPrebufferResponses =
+        getAnyOption(READ_PREBUFFER_RESPONSES_KEY, conf, tableParameters);
+    if (numPrebufferResponses.isPresent()) {
+      config.numPrebufferReadRowsResponses =
+          Math.max(
+              MIN_BUFFERED_RESPONSES_PER_STREAM, Integer.parseInt(numPrebufferResponses.get()));
+    }
+    Optional<String> splitTargetSize =
+        getAnyOption(READ_SPLIT_TARGET_SIZE_KEY, conf, tableParameters);
+    if (splitTargetSize.isPresent()) {
+      config.splitTargetSize = Math.max(0, Long.parseLong(splitTargetSize.get()));
+    }
+    Optional<String> minStreams = getAnyOption(READ_MIN_STREAMS_KEY, conf, tableParameters);
+    if (minStreams.isPresent()) {
+      config.minStreams = Math.max(0, Integer.parseInt(minStreams.get()));
+    }
+    Optional<String> readSessionCacheTtl =
+        getAnyOption(READ_SESSION_CACHE_TTL_KEY, conf, tableParameters);
+    if (readSessionCacheTtl.isPresent()) {
+      config.readSessionCacheTtlSeconds = Math.max(0, Long.parseLong(readSessionCacheTtl.get()));
+    }
+    Optional<String> countFromMetadata =
+        getAnyOption(READ_COUNT_FROM_METADATA_KEY, conf, tableParameters);
+    if (countFromMetadata.isPresent()) {
+      config.countFromMetadata = Boolean.parseBoolean(countFromMetadata.get());
+    }
+    Optional<String> snapshotTime = getAnyOption(READ_SNAPSHOT_TIME_KEY, conf, tableParameters);
+    if (snapshotTime.isPresent()) {
+      try {
+        config.snapshotTime = Optional.of(Instant.parse(snapshotTime.get()));
+      } catch (DateTimeParseException e) {
+        throw new RuntimeException(
+            "Invalid "
+                + READ_SNAPSHOT_TIME_KEY
+                + " value, expected an ISO-8601 instant (e.g. 2022-01-01T00:00:00Z): "
+                + snapshotTime.get(),
+            e);
+      }
+    }
+    Optional<String> cacheExpirationTime =
+        getAnyOption(CACHE_EXPIRATION_TIME_KEY, conf, tableParameters);
+    if (cacheExpirationTime.isPresent()) {
+      config.cacheExpirationTimeInMinutes =
+          Math.max(0, Integer.parseInt(cacheExpirationTime.get()));
+    }
+    Optional<String> tableInfoCacheExpirationTime =
+        getAnyOption(TABLE_INFO_CACHE_EXPIRATION_KEY, conf, tableParameters);
+    if (tableInfoCacheExpirationTime.isPresent()) {
+      config.tableInfoCacheExpirationTimeInMinutes =
+          Math.max(0, Integer.parseInt(tableInfoCacheExpirationTime.get()));
+    }
+    Optional<String> arrowCompressionCodec =
+        getAnyOption(ARROW_COMPRESSION_CODEC_KEY, conf, tableParameters);
+    if (arrowCompressionCodec.isPresent()) {
+      String codec = arrowCompressionCodec.get().toUpperCase();
+      if (codec.equals("NONE")) {
+        config.arrowCompressionCodec = CompressionCodec.COMPRESSION_UNSPECIFIED;
+      } else if (codec.equals("LZ4_FRAME") || codec.equals("ZSTD")) {
+        config.arrowCompressionCodec = CompressionCodec.valueOf(codec);
+      } else {
+        throw new RuntimeException(
+            "Invalid Arrow compression codec: "
+                + arrowCompressionCodec.get()
+                + ". Supported values: none, lz4_frame, zstd");
+      }
+    }
     // TODO: Should we add the "bq." prefix to the "credentials", "credentialsFile", and
     //  "gcpAccessToken" keys?
     config.credentialsKey = Optional.fromNullable(conf.get("credentials"));
@@ -314,7 +437,11 @@ public class HiveBigQueryConfig
 
   @Override
   public int getCacheExpirationTimeInMinutes() {
-    return DEFAULT_CACHE_EXPIRATION_IN_MINUTES; // TODO: Make configurable
+    return cacheExpirationTimeInMinutes;
+  }
+
+  public int getTableInfoCacheExpirationTimeInMinutes() {
+    return tableInfoCacheExpirationTimeInMinutes;
   }
 
   public DataFormat getReadDataFormat() {
@@ -326,6 +453,46 @@ public class HiveBigQueryConfig
     return bigQueryJobLabels;
   }
 
+  public boolean isReadReuseObjects() {
+    return readReuseObjects;
+  }
+
+  public boolean isReadLazyRows() {
+    return readLazyRows;
+  }
+
+  public int getNumBackgroundThreadsPerStream() {
+    return numBackgroundThreadsPerStream;
+  }
+
+  public int getNumPrebufferReadRowsResponses() {
+    return numPrebufferReadRowsResponses;
+  }
+
+  public long getSplitTargetSize() {
+    return splitTargetSize;
+  }
+
+  public int getMinStreams() {
+    return minStreams;
+  }
+
+  public long getReadSessionCacheTtlSeconds() {
+    return readSessionCacheTtlSeconds;
+  }
+
+  public boolean isCountFromMetadata() {
+    return countFromMetadata;
+  }
+
+  public java.util.Optional<Instant> getSnapshotTime() {
+    return snapshotTime.toJavaUtil();
+  }
+
+  public CompressionCodec getArrowCompressionCodec() {
+    return arrowCompressionCodec;
+  }
+
   public OptionalInt getMaxParallelism() {
     return maxParallelism == null ? OptionalInt.empty() : OptionalInt.of(maxParallelism);
   }
@@ -334,7 +501,71 @@ public class HiveBigQueryConfig
     return traceId;
   }
 
+  /**
+   * Returns the settings that identify the connection to BigQuery, i.e. the client settings along
+   * with the access token. Data fetched with a connection, e.g. read sessions and table metadata,
+   * can be shared by configs that have the same key.
+   */
+  public List<Object> getConnectionKey() {
+    return Arrays.asList(getClientKey(), accessToken);
+  }
+
+  /**
+   * Returns the settings that the BigQuery clients depend on, except for the access token. Access
+   * tokens are short-lived, so the clients registered for a key are replaced when its token changes
+   * instead of piling up. See {@link BigQueryClientRegistry}.
+   */
+  public List<Object> getClientKey() {
+    return Arrays.asList(
+        credentialsKey,
+        credentialsFile,
+        parentProjectId,
+        useParentProjectForMetadataOperations,
+        viewsEnabled,
+        materializationProject,
+        materializationDataset,
+        materializationExpirationTimeInMinutes,
+        bigQueryJobLabels,
+        storageReadEndpoint,
+        proxyConfig,
+        cacheExpirationTimeInMinutes);
+  }
+
+  /**
+   * Returns the base64-encoded request that the read sessions are created from. If a snapshot time
+   * is set, the request's table modifiers make the sessions read the tables as of that time.
+   */
+  private java.util.Optional<String> getEncodedCreateReadSessionRequest() {
+    if (!snapshotTime.isPresent()) {
+      return encodedCreateReadSessionRequest.toJavaUtil();
+    }
+    CreateReadSessionRequest.Builder request = CreateReadSessionRequest.newBuilder();
+    if (encodedCreateReadSessionRequest.isPresent()) {
+      try {
+        request.mergeFrom(Base64.getDecoder().decode(encodedCreateReadSessionRequest.get()));
+      } catch (InvalidProtocolBufferException e) {
+        throw new RuntimeException("Invalid read session request", e);
+      }
+    }
+    request
+        .getReadSessionBuilder()
+        .getTableModifiersBuilder()
+        .setSnapshotTime(
+            Timestamp.newBuilder()
+                .setSeconds(snapshotTime.get().getEpochSecond())
+                .setNanos(snapshotTime.get().getNano()));
+    return java.util.Optional.of(Base64.getEncoder().encodeToString(request.build().toByteArray()));
+  }
+
   public ReadSessionCreatorConfig toReadSessionCreatorConfig() {
+    return toReadSessionCreatorConfig(getMaxParallelism());
+  }
+
+  /**
+   * Same as {@link #toReadSessionCreatorConfig()}, but overrides the maximum number of streams of
+   * the read session.
+   */
+  public ReadSessionCreatorConfig toReadSessionCreatorConfig(OptionalInt maxParallelism) {
     return new ReadSessionCreatorConfigBuilder()
         .setViewsEnabled(viewsEnabled)
         .setMaterializationProject(materializationProject.toJavaUtil())
@@ -344,8 +575,8 @@ public class HiveBigQueryConfig
         .setMaxReadRowsRetries(maxReadRowsRetries)
         .setViewEnabledParamName(VIEWS_ENABLED_OPTION)
         .setDefaultParallelism(1) // TODO: Make configurable?
-        .setMaxParallelism(getMaxParallelism())
-        .setRequestEncodedBase(encodedCreateReadSessionRequest.toJavaUtil())
+        .setMaxParallelism(maxParallelism)
+        .setRequestEncodedBase(getEncodedCreateReadSessionRequest())
         .setEndpoint(storageReadEndpoint.toJavaUtil())
         .setBackgroundParsingThreads(numBackgroundThreadsPerStream)
         .setPushAllFilters(pushAllFilters)
@@ -22,7 +22,6 @@ import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
@@ -46,10 +45,7 @@ public class HiveBigQueryConnectorModule implements Module {
   }
 
   public HiveBigQueryConnectorModule(Configuration conf, Properties tableProperties) {
-    this(conf, new HashMap<>());
-    for (String key : tableProperties.stringPropertyNames()) {
-      tableParameters.put(key, tableProperties.getProperty(key));
-    }
+    this(conf, HiveUtils.toMap(tableProperties));
   }
 
   @Override
@@ -15,56 +15,96 @@
  */
 package com.google.cloud.hive.bigquery.connector.input;
 
-import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import java.math.BigDecimal;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
-import org.apache.hadoop.hive.serde2.typeinfo.BaseCharTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import repackaged.by.hivebqconnector.com.google.common.collect.ImmutableList;
 
-/**
- * Overrides ExprNodeConstantDesc to make sure filter values (in a WHERE clause) are properly
- * formatted to work with BigQuery.
- */
-public class BigQueryConstantDesc extends ExprNodeConstantDesc {
+/** Makes sure filter values (in a WHERE clause) are properly formatted to work with BigQuery. */
+public class BigQueryConstantDesc {
 
-  private static final long serialVersionUID = 1L;
+  // Largest number of digits before and after the decimal point of BigQuery's NUMERIC values
+  private static final int NUMERIC_INTEGER_DIGITS = 29;
+  private static final int NUMERIC_SCALE = 9;
 
-  public BigQueryConstantDesc(TypeInfo typeInfo, Object value) {
-    super(typeInfo, value);
-  }
+  private BigQueryConstantDesc() {}
 
-  /** Format the value of the predicate (.e. WHERE clause item) to be compatible with BigQuery. */
-  private static String formatPredicateValue(TypeInfo typeInfo, Object value) {
+  /**
+   * Formats the given constant value (e.g. from a WHERE clause item) as a BigQuery SQL literal.
+   *
+   * @return the formatted literal, or null if the value can't be represented in BigQuery SQL.
+   */
+  static String formatValue(TypeInfo typeInfo, Object value) {
+    if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
     String typeName = typeInfo.getTypeName();
     if (value == null) {
       return "NULL";
     }
-    if (typeName.equals("string") || (typeInfo instanceof BaseCharTypeInfo)) {
-      return "'" + value + "'";
+    if (typeName.equals("string") || typeName.startsWith("varchar(")) {
+      return quote(value.toString());
     }
     if (typeName.equals("date")) {
-      return "DATE('" + value + "')";
+      return "DATE(" + quote(value.toString()) + ")";
+    }
+    if (typeName.equals("timestamp")) {
+      return "TIMESTAMP(" + quote(value.toString()) + ")";
     }
-    if (typeInfo.getTypeName().equals("timestamp")) {
-      return "TIMESTAMP('" + value + "')";
+    if (typeName.equals("float") || typeName.equals("double")) {
+      // BigQuery has no literals for NaN and infinite values
+      double number = ((Number) value).doubleValue();
+      return Double.isFinite(number) ? value.toString() : null;
     }
-    if (ImmutableList.of("bigint", "float", "double", "string", "boolean").contains(typeName)
-        || typeName.startsWith("decimal(")) {
+    if (typeName.startsWith("decimal(")) {
+      return formatDecimal(
+          value instanceof HiveDecimal
+              ? ((HiveDecimal) value).bigDecimalValue()
+              : new BigDecimal(value.toString()));
+    }
+    if (ImmutableList.of("tinyint", "smallint", "int", "bigint", "boolean").contains(typeName)) {
       return value.toString();
     }
-    throw new RuntimeException("Unsupported predicate type: " + typeName);
+    return null;
   }
 
-  @Override
-  public String getExprString() {
-    if (this.typeInfo.getCategory() == ObjectInspector.Category.PRIMITIVE) {
-      return formatPredicateValue(this.typeInfo, this.getValue());
-    } else {
-      throw new RuntimeException("Unsupported predicate type: " + this.typeInfo.getTypeName());
-    }
+  /**
+   * Formats the given decimal as a NUMERIC literal, or as a BIGNUMERIC literal if it doesn't fit in
+   * a NUMERIC. A plain number literal would be a FLOAT64 in BigQuery, which would make it compare
+   * approximately instead of exactly like in Hive.
+   */
+  private static String formatDecimal(BigDecimal value) {
+    String type =
+        value.scale() <= NUMERIC_SCALE
+                && value.precision() - value.scale() <= NUMERIC_INTEGER_DIGITS
+            ? "NUMERIC"
+            : "BIGNUMERIC";
+    return type + " '" + value.toPlainString() + "'";
   }
 
-  public static BigQueryConstantDesc translate(ExprNodeConstantDesc constantDesc) {
-    return new BigQueryConstantDesc(constantDesc.getTypeInfo(), constantDesc.getValue());
+  /** Wraps the given string in single quotes, escaping the characters that need it. */
+  private static String quote(String value) {
+    StringBuilder builder = new StringBuilder(value.length() + 2).append('\'');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\'':
+          builder.append("\\'");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        default:
+          builder.append(c);
+      }
+    }
+    return builder.append('\'').toString();
   }
 }
@@ -16,35 +16,278 @@
 package com.google.cloud.hive.bigquery.connector.input;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import org.apache.hadoop.hive.ql.metadata.VirtualColumn;
 import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDescUtils;
 import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.UDFLike;
+import org.apache.hadoop.hive.ql.udf.UDFToDouble;
+import org.apache.hadoop.hive.ql.udf.UDFToLong;
+import org.apache.hadoop.hive.ql.udf.UDFToString;
+import org.apache.hadoop.hive.ql.udf.generic.*;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Translates Hive filter expressions (from WHERE clauses) into BigQuery SQL row restrictions.
+ *
+ * <p>Only the expressions that BigQuery evaluates exactly like Hive are translated: comparisons,
+ * IN, BETWEEN, IS [NOT] NULL, LIKE, AND/OR/NOT, and a few lossless CASTs, over columns and
+ * constants of compatible types. Other expressions are left for Hive to evaluate.
+ */
 public class BigQueryFilters {
 
+  private static final Logger LOG = LoggerFactory.getLogger(BigQueryFilters.class);
+
+  /**
+   * Translates the given filter expression to a BigQuery row restriction. The filter's conjuncts
+   * that can't be translated are skipped, which is safe because Hive keeps them as residual
+   * predicates (see {@code BigQueryStorageHandler.decomposePredicate()}).
+   *
+   * @return the row restriction, or null if no part of the filter can be translated.
+   */
+  public static String translateFilters(ExprNodeDesc filterExpr) {
+    List<String> translatedConjuncts = new ArrayList<>();
+    for (ExprNodeDesc conjunct : ExprNodeDescUtils.split(filterExpr)) {
+      String translated = translate(conjunct);
+      if (translated == null) {
+        LOG.info("Filter not pushed down to BigQuery: {}", conjunct.getExprString());
+      } else {
+        translatedConjuncts.add(translated);
+      }
+    }
+    return translatedConjuncts.isEmpty() ? null : String.join(" AND ", translatedConjuncts);
+  }
+
+  /**
+   * Translates the given boolean expression to BigQuery SQL.
+   *
+   * @return the translated expression, or null if BigQuery can't evaluate it the same way as Hive.
+   */
+  public static String translate(ExprNodeDesc expr) {
+    if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+      return null;
+    }
+    GenericUDF udf = ((ExprNodeGenericFuncDesc) expr).getGenericUDF();
+    List<ExprNodeDesc> children = expr.getChildren();
+    if (udf instanceof GenericUDFOPAnd || udf instanceof GenericUDFOPOr) {
+      List<String> operands = new ArrayList<>();
+      for (ExprNodeDesc child : children) {
+        String operand = translate(child);
+        if (operand == null) {
+          return null;
+        }
+        operands.add(operand);
+      }
+      String operator = udf instanceof GenericUDFOPAnd ? " AND " : " OR ";
+      return "(" + String.join(operator, operands) + ")";
+    }
+    if (udf instanceof GenericUDFOPNot) {
+      String operand = translate(children.get(0));
+      return operand == null ? null : "(NOT " + operand + ")";
+    }
+    if (udf instanceof GenericUDFOPNull || udf instanceof GenericUDFOPNotNull) {
+      String operand = translateValue(children.get(0));
+      if (operand == null) {
+        return null;
+      }
+      return "(" + operand + (udf instanceof GenericUDFOPNull ? " IS NULL)" : " IS NOT NULL)");
+    }
+    String comparisonOperator = getComparisonOperator(udf);
+    if (comparisonOperator != null) {
+      if (!haveCompatibleTypes(children)) {
+        return null;
+      }
+      String left = translateValue(children.get(0));
+      String right = translateValue(children.get(1));
+      if (left == null || right == null) {
+        return null;
+      }
+      return "(" + left + " " + comparisonOperator + " " + right + ")";
+    }
+    if (udf instanceof GenericUDFIn) {
+      if (!haveCompatibleTypes(children)) {
+        return null;
+      }
+      List<String> operands = new ArrayList<>();
+      for (ExprNodeDesc child : children) {
+        String operand = translateValue(child);
+        if (operand == null) {
+          return null;
+        }
+        operands.add(operand);
+      }
+      return "("
+          + operands.get(0)
+          + " IN ("
+          + String.join(", ", operands.subList(1, operands.size()))
+          + "))";
+    }
+    if (udf instanceof GenericUDFBetween) {
+      // The first child indicates whether the condition is inverted, i.e. "NOT BETWEEN"
+      ExprNodeDesc invert = children.get(0);
+      List<ExprNodeDesc> operands = children.subList(1, children.size());
+      if (!(invert instanceof ExprNodeConstantDesc) || !haveCompatibleTypes(operands)) {
+        return null;
+      }
+      String value = translateValue(operands.get(0));
+      String low = translateValue(operands.get(1));
+      String high = translateValue(operands.get(2));
+      if (value == null || low == null || high == null) {
+        return null;
+      }
+      boolean inverted = Boolean.TRUE.equals(((ExprNodeConstantDesc) invert).getValue());
+      return "(" + value + (inverted ? " NOT BETWEEN " : " BETWEEN ") + low + " AND " + high + ")";
+    }
+    if (isBridge(udf, UDFLike.class)) {
+      // Both Hive and BigQuery use the "%" and "_" wildcards and the backslash escape character
+      ExprNodeDesc pattern = children.get(1);
+      if (!(pattern instanceof ExprNodeConstantDesc) || !haveCompatibleTypes(children)) {
+        return null;
+      }
+      String value = translateValue(children.get(0));
+      String translatedPattern = translateValue(pattern);
+      if (value == null || translatedPattern == null) {
+        return null;
+      }
+      return "(" + value + " LIKE " + translatedPattern + ")";
+    }
+    return null;
+  }
+
+  /** Translates a column reference, a constant or a CAST expression to BigQuery SQL. */
+  private static String translateValue(ExprNodeDesc expr) {
+    if (expr instanceof ExprNodeColumnDesc) {
+      String column = ((ExprNodeColumnDesc) expr).getColumn();
+      if (VirtualColumn.VIRTUAL_COLUMN_NAMES.contains(column)
+          || getTypeFamily(expr.getTypeInfo()) == null) {
+        return null;
+      }
+      return "`" + column + "`";
+    }
+    if (expr instanceof ExprNodeConstantDesc) {
+      if (getTypeFamily(expr.getTypeInfo()) == null) {
+        return null;
+      }
+      return BigQueryConstantDesc.formatValue(
+          expr.getTypeInfo(), ((ExprNodeConstantDesc) expr).getValue());
+    }
+    if (expr instanceof ExprNodeGenericFuncDesc) {
+      return translateCast((ExprNodeGenericFuncDesc) expr);
+    }
+    return null;
+  }
+
+  /**
+   * Translates the CASTs for which BigQuery and Hive produce the same results, i.e. from integers
+   * to integers, floating point numbers or strings, and from dates to strings.
+   */
+  private static String translateCast(ExprNodeGenericFuncDesc expr) {
+    GenericUDF udf = expr.getGenericUDF();
+    if (expr.getChildren().size() != 1) {
+      return null;
+    }
+    ExprNodeDesc operand = expr.getChildren().get(0);
+    String sourceFamily = getTypeFamily(operand.getTypeInfo());
+    String targetType;
+    if (isBridge(udf, UDFToLong.class) && "integer".equals(sourceFamily)) {
+      targetType = "INT64";
+    } else if (isBridge(udf, UDFToDouble.class) && "integer".equals(sourceFamily)) {
+      targetType = "FLOAT64";
+    } else if ((isBridge(udf, UDFToString.class) || udf instanceof GenericUDFToVarchar)
+        && ("integer".equals(sourceFamily) || "date".equals(sourceFamily))) {
+      targetType = "STRING";
+    } else {
+      return null;
+    }
+    String value = translateValue(operand);
+    return value == null ? null : "CAST(" + value + " AS " + targetType + ")";
+  }
+
+  private static String getComparisonOperator(GenericUDF udf) {
+    if (udf instanceof GenericUDFOPEqual) {
+      return "=";
+    } else if (udf instanceof GenericUDFOPNotEqual) {
+      return "!=";
+    } else if (udf instanceof GenericUDFOPLessThan) {
+      return "<";
+    } else if (udf instanceof GenericUDFOPEqualOrLessThan) {
+      return "<=";
+    } else if (udf instanceof GenericUDFOPGreaterThan) {
+      return ">";
+    } else if (udf instanceof GenericUDFOPEqualOrGreaterThan) {
+      return ">=";
+    }
+    return null;
+  }
+
+  private static boolean isBridge(GenericUDF udf, Class<?> udfClass) {
+    return udf instanceof GenericUDFBridge
+        && udfClass.getName().equals(((GenericUDFBridge) udf).getUdfClassName());
+  }
+
   /**
-   * Translates the given filter expression (from a WHERE clause) to be compatible with BigQuery.
+   * Checks that the given operands can be compared in BigQuery without any implicit conversion,
+   * which Hive and BigQuery don't perform the same way (e.g. between strings and numbers). Integers
+   * can be compared with both floating point numbers and decimals, but floating point numbers and
+   * decimals can't be compared with each other: Hive converts the decimals to doubles, while
+   * BigQuery converts them to FLOAT64 or compares them exactly depending on the types.
    */
-  public static ExprNodeDesc translateFilters(ExprNodeDesc filterExpr) {
-    if (filterExpr instanceof ExprNodeGenericFuncDesc) {
-      // Let's go one level deeper
-      List<ExprNodeDesc> translatedChildren = new ArrayList<>();
-      for (ExprNodeDesc child : filterExpr.getChildren()) {
-        translatedChildren.add(translateFilters(child));
+  private static boolean haveCompatibleTypes(List<ExprNodeDesc> operands) {
+    Set<String> families = new HashSet<>();
+    for (ExprNodeDesc operand : operands) {
+      String operandFamily = getTypeFamily(operand.getTypeInfo());
+      if (operandFamily == null) {
+        return false;
       }
-      ((ExprNodeGenericFuncDesc) filterExpr).setChildren(translatedChildren);
-      return filterExpr;
+      families.add(operandFamily);
     }
-    if (filterExpr instanceof ExprNodeColumnDesc) {
-      return filterExpr;
+    if (families.size() <= 1) {
+      return true;
+    }
+    // Different numeric types
+    families.remove("integer");
+    return families.size() == 1 && (families.contains("floating") || families.contains("decimal"));
+  }
+
+  /** Returns the family of the given Hive type, or null if its values aren't supported. */
+  private static String getTypeFamily(TypeInfo typeInfo) {
+    if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
     }
-    if (filterExpr instanceof ExprNodeConstantDesc) {
-      // Convert the ExprNodeConstantDesc to a BigQueryConstantDesc
-      // to make sure the value properly formatted for BigQuery.
-      return BigQueryConstantDesc.translate((ExprNodeConstantDesc) filterExpr);
+    PrimitiveCategory category = ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+    switch (category) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return "integer";
+      case FLOAT:
+      case DOUBLE:
+        return "floating";
+      case DECIMAL:
+        return "decimal";
+      case STRING:
+      case VARCHAR:
+        return "string";
+      case BOOLEAN:
+        return "boolean";
+      case DATE:
+        return "date";
+      case TIMESTAMP:
+        return "timestamp";
+      default:
+        // CHAR values are compared without their trailing spaces in Hive, but not in BigQuery
+        return null;
     }
-    throw new RuntimeException("Unexpected filter type: " + filterExpr);
   }
 }
@@ -17,43 +17,82 @@ package com.google.cloud.hive.bigquery.connector.input;
 
 import static repackaged.by.hivebqconnector.com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.cloud.bigquery.StandardTableDefinition;
 import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.bigquery.connector.common.*;
 import com.google.cloud.bigquery.storage.v1.ReadRowsRequest;
 import com.google.cloud.bigquery.storage.v1.ReadSession;
+import com.google.cloud.bigquery.storage.v1.ReadStream;
+import com.google.cloud.bigquery.storage.v1.SplitReadStreamRequest;
+import com.google.cloud.bigquery.storage.v1.SplitReadStreamResponse;
+import com.google.cloud.hive.bigquery.connector.Constants;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry;
 import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
-import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConnectorModule;
-import com.google.inject.Guice;
 import com.google.inject.Injector;
-import java.io.*;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.LimitOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.SelectOperator;
 import org.apache.hadoop.hive.ql.exec.SerializationUtilities;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
+import org.apache.hadoop.hive.ql.exec.Utilities;
 import org.apache.hadoop.hive.ql.io.HiveInputFormat.HiveInputSplit;
 import org.apache.hadoop.hive.ql.metadata.VirtualColumn;
 import org.apache.hadoop.hive.ql.plan.*;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
 import repackaged.by.hivebqconnector.com.google.common.collect.ImmutableList;
 
 public class BigQueryInputSplit extends HiveInputSplit implements Writable {
 
-  private ReadRowsHelper readRowsHelper;
+  private static final Logger LOG = LoggerFactory.getLogger(BigQueryInputSplit.class);
+
+  // Incremented whenever the serialized format of the split changes
+  private static final byte SERIALIZATION_VERSION = 3;
+
+  // Rows counted from the table's metadata are spread over splits of up to that many rows, so
+  // that producing them doesn't hold up the query in a single task
+  @VisibleForTesting static final long ROWS_PER_ROW_COUNT_SPLIT = 10_000_000L;
+  @VisibleForTesting static final int MAX_ROW_COUNT_SPLITS = 1000;
+
   private Path warehouseLocation;
-  private String streamName;
+  // Streams read by the split, one after another
+  private List<String> streamNames;
+  // Session-wide state, not serialized with the split. See restoreSessionState().
   private List<String> columnNames;
-  private BigQueryClientFactory bqClientFactory;
   private HiveBigQueryConfig config;
+  // Number of rows that the split's streams are expected to return, or 0 if unknown
+  private long estimatedRowCount;
+  // When set, the split only returns rows without any values. Those are either counted in the
+  // responses of its streams, without decoding them, or, if it has no streams, given by
+  // estimatedRowCount, which then holds the exact number of rows from the table's metadata
+  private boolean rowCountOnly;
+  // Maximum number of rows that the query needs from the split, or -1 if unlimited
+  private long rowLimit = -1;
+  // Number of bytes that the split's streams are expected to return
+  private long estimatedLength = 1L;
 
   @VisibleForTesting
   public BigQueryInputSplit() {
@@ -61,75 +100,83 @@ public class BigQueryInputSplit extends HiveInputSplit implements Writable {
   }
 
   public BigQueryInputSplit(
-      TableId tableId,
       Path warehouseLocation,
-      String streamName,
+      List<String> streamNames,
       List<String> columnNames,
-      BigQueryClientFactory bqClientFactory,
-      HiveBigQueryConfig config) {
+      HiveBigQueryConfig config,
+      long estimatedRowCount,
+      long estimatedLength,
+      boolean rowCountOnly,
+      long rowLimit) {
     super();
     this.warehouseLocation = warehouseLocation;
-    this.streamName = streamName;
+    this.streamNames = streamNames;
     this.columnNames = columnNames;
-    this.bqClientFactory = bqClientFactory;
     this.config = config;
+    this.estimatedRowCount = estimatedRowCount;
+    this.estimatedLength = estimatedLength;
+    this.rowCountOnly = rowCountOnly;
+    this.rowLimit = rowLimit;
   }
 
-  private void writeObject(DataOutput out, Object obj) {
-    try {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(baos);
-      oos.writeObject(obj);
-      oos.close();
-      byte[] rawBytes = baos.toByteArray();
-      out.writeInt(rawBytes.length);
-      out.write(rawBytes);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  /**
+   * Serializes the instance's attributes to a sequence of bytes. Only the split's own streams and
+   * estimates are written. The session-wide state (config and columns) is the same for all the
+   * splits, so it is restored from the job's configuration instead of being shipped with every
+   * split.
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(SERIALIZATION_VERSION);
+    Text.writeString(out, warehouseLocation.toString());
+    WritableUtils.writeVInt(out, streamNames.size());
+    for (String streamName : streamNames) {
+      Text.writeString(out, streamName);
     }
+    WritableUtils.writeVLong(out, estimatedRowCount);
+    WritableUtils.writeVLong(out, estimatedLength);
+    out.writeBoolean(rowCountOnly);
+    WritableUtils.writeVLong(out, rowLimit);
   }
 
-  private Object readObject(DataInput in) throws IOException {
-    try {
-      int length = in.readInt();
-      byte[] rawBytes = new byte[length];
-      in.readFully(rawBytes);
-      ByteArrayInputStream bais = new ByteArrayInputStream(rawBytes);
-      ObjectInputStream ois = new ObjectInputStream(bais);
-      return ois.readObject();
-    } catch (ClassNotFoundException e) {
-      throw new IOException(e);
+  /** Hydrates the instance's attributes from the given sequence of bytes */
+  public void readFields(DataInput in) throws IOException {
+    byte version = in.readByte();
+    if (version != SERIALIZATION_VERSION) {
+      throw new IOException("Unsupported BigQueryInputSplit serialization version: " + version);
     }
+    warehouseLocation = new Path(Text.readString(in));
+    int numStreams = WritableUtils.readVInt(in);
+    streamNames = new ArrayList<>(numStreams);
+    for (int i = 0; i < numStreams; i++) {
+      streamNames.add(Text.readString(in));
+    }
+    estimatedRowCount = WritableUtils.readVLong(in);
+    estimatedLength = WritableUtils.readVLong(in);
+    rowCountOnly = in.readBoolean();
+    rowLimit = WritableUtils.readVLong(in);
   }
 
-  /** Serializes the instance's attributes to a sequence of bytes */
-  public void write(DataOutput out) throws IOException {
-    out.writeUTF(warehouseLocation.toString());
-    out.writeUTF(streamName);
-    byte[] columnNamesAsBytes = String.join(",", columnNames).getBytes(StandardCharsets.UTF_8);
-    out.writeInt(columnNamesAsBytes.length);
-    out.write(columnNamesAsBytes);
-    writeObject(out, bqClientFactory);
-    writeObject(out, config);
-  }
-
-  /** Hydrates the instance's attributes from the given sequence of bytes */
-  public void readFields(DataInput in) throws IOException {
-    warehouseLocation = new Path(in.readUTF());
-    streamName = in.readUTF();
-    int length = in.readInt();
-    byte[] columnNamesAsBytes = new byte[length];
-    in.readFully(columnNamesAsBytes);
-    columnNames = Arrays.asList(new String(columnNamesAsBytes, StandardCharsets.UTF_8).split(","));
-    bqClientFactory = (BigQueryClientFactory) readObject(in);
-    config = (HiveBigQueryConfig) readObject(in);
+  /**
+   * Restores the session-wide state that isn't serialized with the split, i.e. the config and the
+   * column names, from the given job configuration. Must be called before reading the split in a
+   * task.
+   */
+  public void restoreSessionState(JobConf jobConf) {
+    if (config != null) {
+      // The split was created in this JVM, so the state is already available
+      return;
+    }
+    config = HiveBigQueryConfig.from(jobConf, null);
+    columnNames = getColumnNames(jobConf, config);
   }
 
+  /**
+   * Returns the estimated number of bytes that the split will read. Hive and Tez rely on this to
+   * estimate the number of reducers and to group splits.
+   */
   @Override
   public long getLength() {
-    // FIXME: Supposedly should return the number of bytes in the input split.
-    //  Might not be relevant in the context of BigQuery...
-    return 1L;
+    return estimatedLength;
   }
 
   @Override
@@ -141,11 +188,12 @@ public class BigQueryInputSplit extends HiveInputSplit implements Writable {
 
   @Override
   public String toString() {
-    return String.format("warehouseLocation=%s, streamName=%s", warehouseLocation, streamName);
+    return String.format(
+        "warehouseLocation=%s, streamNames=%s", warehouseLocation, String.join(",", streamNames));
   }
 
-  public String getStreamName() {
-    return this.streamName;
+  public List<String> getStreamNames() {
+    return this.streamNames;
   }
 
   @Override
@@ -157,35 +205,40 @@ public class BigQueryInputSplit extends HiveInputSplit implements Writable {
     return columnNames;
   }
 
+  public long getEstimatedRowCount() {
+    return estimatedRowCount;
+  }
+
+  public boolean isRowCountOnly() {
+    return rowCountOnly;
+  }
+
+  public long getRowLimit() {
+    return rowLimit;
+  }
+
   public static InputSplit[] createSplitsfromBigQueryReadStreams(JobConf jobConf) {
-    Injector injector =
-        Guice.createInjector(new BigQueryClientModule(), new HiveBigQueryConnectorModule(jobConf));
+    try (BigQueryClientRegistry.Lease lease = BigQueryClientRegistry.acquire(jobConf)) {
+      return createSplitsfromBigQueryReadStreams(jobConf, lease.getInjector());
+    }
+  }
+
+  private static InputSplit[] createSplitsfromBigQueryReadStreams(
+      JobConf jobConf, Injector injector) {
     BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
     BigQueryClientFactory bqClientFactory = injector.getInstance(BigQueryClientFactory.class);
-    HiveBigQueryConfig config = injector.getInstance(HiveBigQueryConfig.class);
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(jobConf, null);
     TableId tableId = config.getTableId();
-
-    // Retrieve the table's column names
-    String columnNameDelimiter = config.getColumnNameDelimiter();
-    List<String> columnNames =
-        new ArrayList<>(
-            Arrays.asList(
-                checkNotNull(jobConf.get(serdeConstants.LIST_COLUMNS)).split(columnNameDelimiter)));
-    // Remove the virtual columns
-    columnNames.removeAll(new HashSet<>(VirtualColumn.VIRTUAL_COLUMN_NAMES));
+    List<String> columnNames = getColumnNames(jobConf, config);
 
     Set<String> selectedFields;
     String engine = HiveConf.getVar(jobConf, HiveConf.ConfVars.HIVE_EXECUTION_ENGINE);
     if (engine.equals("mr")) {
-      // Unfortunately the MR engine does not provide a reliable value for the
-      // "hive.io.file.readcolumn.names" when multiple tables are read in the
-      // same query. So we have to select all the columns (i.e. `SELECT *`).
-      // This is unfortunately quite inefficient. Tez, however, does not have that issue.
+      // The MR engine does not provide a reliable value for the "hive.io.file.readcolumn.names"
+      // when multiple tables are read in the same query, so the columns are resolved from the
+      // table scans of the query plan instead.
       // See more info here: https://lists.apache.org/thread/g464zybq4g6c7p2h6nd9jmmznq472785
-      // TODO: Investigate to see if we can come up with a workaround. Maybe try
-      //  using the new MapRed API (org.apache.hadoop.mapreduce) instead of the old
-      //  one (org.apache.hadoop.mapred)?
-      selectedFields = new HashSet<>(columnNames);
+      selectedFields = getMapRedSelectedFields(getTableScans(jobConf, tableId), columnNames);
     } else {
       selectedFields =
           new HashSet<>(Arrays.asList(ColumnProjectionUtils.getReadColumnNames(jobConf)));
@@ -194,13 +247,44 @@ public class BigQueryInputSplit extends HiveInputSplit implements Writable {
     // If a WHERE clause with filters is present, translate the filter values to
     // be compatible with BigQuery
     String serializedFilterExpr = jobConf.get(TableScanDesc.FILTER_EXPR_CONF_STR);
+    checkPartitionPseudoColumns(
+        selectedFields,
+        columnNames,
+        engine.equals("mr") ? getTableScans(jobConf, tableId) : null,
+        serializedFilterExpr != null);
+    // The Read API doesn't return the pseudo-columns, so Hive sees them as nulls with `SELECT *`
+    selectedFields.removeAll(Constants.PARTITION_PSEUDO_COLUMNS);
     ExprNodeGenericFuncDesc filterExpr;
     Optional<String> filter = Optional.empty();
     if (serializedFilterExpr != null) {
       filterExpr = SerializationUtilities.deserializeExpression(serializedFilterExpr);
-      ExprNodeGenericFuncDesc translatedFilterExpr =
-          (ExprNodeGenericFuncDesc) BigQueryFilters.translateFilters(filterExpr);
-      filter = Optional.of(translatedFilterExpr.getExprString());
+      filter = Optional.ofNullable(BigQueryFilters.translateFilters(filterExpr));
+    }
+
+    Path warehouseLocation = new Path(jobConf.get("location"));
+    // Scans that don't need any column, e.g. for COUNT(*) or EXISTS, only need the number of rows
+    boolean rowCountOnly =
+        selectedFields.isEmpty()
+            && (engine.equals("mr") || !ColumnProjectionUtils.isReadAllColumns(jobConf));
+    // Without a filter, the number of rows can be retrieved from the table's metadata instead of
+    // scanning the table, if the user allowed it
+    if (rowCountOnly
+        && serializedFilterExpr == null
+        && isUnfiltered(getTableScans(jobConf, tableId))
+        && config.isCountFromMetadata()
+        && !config.getSnapshotTime().isPresent()) {
+      Long numRows = getNumRowsFromMetadata(bqClient, tableId);
+      if (numRows != null) {
+        return createRowCountSplits(warehouseLocation, columnNames, config, numRows);
+      }
+    }
+    if (rowCountOnly) {
+      // The Storage Read API reads all the columns when none is selected, so select the cheapest
+      // one. Its values are never decoded since the readers only count the rows of each response.
+      selectedFields =
+          new HashSet<>(
+              Collections.singletonList(
+                  getNarrowestColumn(jobConf, config.getColumnNameDelimiter(), columnNames)));
     }
 
     // TODO: If the BigQuery doesn't exist, then readSessionCreator.create() throws
@@ -210,41 +294,495 @@ public class BigQueryInputSplit extends HiveInputSplit implements Writable {
     //  library's code to better handle this case and provide a better error message
     //  instead of just throwing a NullPointerException.
     //  See: https://github.com/GoogleCloudDataproc/spark-bigquery-connector/issues/640
-    ReadSessionCreatorConfig readSessionCreatorConfig = config.toReadSessionCreatorConfig();
-    ReadSessionCreator readSessionCreator =
-        new ReadSessionCreator(readSessionCreatorConfig, bqClient, bqClientFactory);
-    ReadSessionResponse readSessionResponse =
-        readSessionCreator.create(
-            config.getTableId(), ImmutableList.copyOf(selectedFields), filter);
+    // Queries that only need the first rows of the table (e.g. with a LIMIT) read them from a
+    // single stream, which stops as soon as enough rows have been received
+    long rowLimit = getRowLimit(jobConf, tableId);
+    OptionalInt maxParallelism = rowLimit >= 0 ? OptionalInt.of(1) : config.getMaxParallelism();
+    // Reuse a recent session for the same read, if allowed, to skip the table lookup and
+    // the session creation
+    List<Object> sessionCacheKey =
+        getSessionCacheKey(tableId, selectedFields, filter, maxParallelism, config);
+    ReadSessionResponse readSessionResponse = null;
+    if (config.getReadSessionCacheTtlSeconds() > 0) {
+      readSessionResponse =
+          ReadSessionCache.get(sessionCacheKey, config.getReadSessionCacheTtlSeconds());
+    }
+    if (readSessionResponse == null) {
+      ReadSessionCreatorConfig readSessionCreatorConfig =
+          config.toReadSessionCreatorConfig(maxParallelism);
+      ReadSessionCreator readSessionCreator =
+          new ReadSessionCreator(readSessionCreatorConfig, bqClient, bqClientFactory);
+      readSessionResponse =
+          readSessionCreator.create(
+              config.getTableId(), ImmutableList.copyOf(selectedFields), filter);
+      if (config.getReadSessionCacheTtlSeconds() > 0) {
+        ReadSessionCache.put(sessionCacheKey, readSessionResponse);
+      }
+    }
     ReadSession readSession = readSessionResponse.getReadSession();
-    Path warehouseLocation = new Path(jobConf.get("location"));
-    return readSession.getStreamsList().stream()
-        .map(
-            readStream ->
-                new BigQueryInputSplit(
-                    tableId,
-                    warehouseLocation,
-                    readStream.getName(),
-                    columnNames,
-                    bqClientFactory,
-                    config))
-        .toArray(FileSplit[]::new);
+    // Used by the readers to report their progress. BigQuery spreads the rows evenly across
+    // the streams, and the estimate is only a fallback for when the API doesn't report progress.
+    TableInfo tableInfo = readSessionResponse.getReadTableInfo();
+    BigInteger numRows = tableInfo.getNumRows();
+    int numStreams = readSession.getStreamsCount();
+    long estimatedRowCount =
+        numRows == null || numStreams == 0 ? 0 : numRows.longValue() / numStreams;
+    if (rowLimit >= 0) {
+      estimatedRowCount = Math.min(estimatedRowCount, rowLimit);
+    }
+    long estimatedLength =
+        estimateStreamLength(
+            tableInfo.getNumBytes(), selectedFields.size(), columnNames.size(), numStreams);
+    Map<String, Double> streamShares =
+        splitReadStreams(
+            readSession.getStreamsList(),
+            rowLimit >= 0 ? 0 : config.getMinStreams(),
+            request -> bqClientFactory.getBigQueryReadClient().splitReadStream(request));
+    // Group the streams so that small tables don't fan out into many short-lived tasks
+    List<List<String>> streamGroups =
+        groupStreams(
+            streamShares,
+            estimatedLength,
+            tableInfo.getNumBytes() == null ? 0 : config.getSplitTargetSize());
+    FileSplit[] splits = new FileSplit[streamGroups.size()];
+    for (int i = 0; i < splits.length; i++) {
+      double share = streamGroups.get(i).stream().mapToDouble(streamShares::get).sum();
+      splits[i] =
+          new BigQueryInputSplit(
+              warehouseLocation,
+              streamGroups.get(i),
+              columnNames,
+              config,
+              (long) (estimatedRowCount * share),
+              Math.max(1L, (long) (estimatedLength * share)),
+              rowCountOnly,
+              rowLimit);
+    }
+    return splits;
+  }
+
+  /**
+   * Returns the key of the read session cache. It covers all the settings that change the read
+   * session's content, so that a session is only reused for the same read of the same data. It also
+   * covers the connection's identity (credentials, parent project, etc.) since a session applies
+   * the row-level and column-level security of the user that created it, and is billed to that
+   * user's project.
+   */
+  @VisibleForTesting
+  static List<Object> getSessionCacheKey(
+      TableId tableId,
+      Set<String> selectedFields,
+      Optional<String> filter,
+      OptionalInt maxParallelism,
+      HiveBigQueryConfig config) {
+    return Arrays.asList(
+        config.getConnectionKey(),
+        tableId,
+        new TreeSet<>(selectedFields),
+        filter.orElse(null),
+        config.getReadDataFormat(),
+        config.getArrowCompressionCodec(),
+        maxParallelism,
+        config.getSnapshotTime().orElse(null));
+  }
+
+  /**
+   * Returns the operators that scan the given table in the job's map-side plan, or null if the plan
+   * isn't available, e.g. for queries that Hive runs as a local fetch task.
+   */
+  private static List<TableScanOperator> getTableScans(JobConf jobConf, TableId tableId) {
+    MapWork mapWork;
+    try {
+      mapWork = Utilities.getMapWork(jobConf);
+    } catch (RuntimeException e) {
+      LOG.warn("Could not retrieve the query plan", e);
+      return null;
+    }
+    return getTableScans(mapWork, tableId);
+  }
+
+  /**
+   * Returns the operators that scan the given table in the given map-side plan, or null if they
+   * can't all be identified.
+   */
+  @VisibleForTesting
+  static List<TableScanOperator> getTableScans(MapWork mapWork, TableId tableId) {
+    if (mapWork == null || tableId == null) {
+      return null;
+    }
+    List<TableScanOperator> tableScans = new ArrayList<>();
+    for (Map.Entry<Path, ArrayList<String>> entry : mapWork.getPathToAliases().entrySet()) {
+      PartitionDesc partitionDesc = mapWork.getPathToPartitionInfo().get(entry.getKey());
+      if (partitionDesc == null
+          || partitionDesc.getTableDesc() == null
+          || !tableId.equals(getTableId(partitionDesc.getTableDesc().getProperties()))) {
+        continue;
+      }
+      for (String alias : entry.getValue()) {
+        Operator<? extends OperatorDesc> operator = mapWork.getAliasToWork().get(alias);
+        if (!(operator instanceof TableScanOperator)) {
+          return null;
+        }
+        tableScans.add((TableScanOperator) operator);
+      }
+    }
+    return tableScans.isEmpty() ? null : tableScans;
+  }
+
+  /**
+   * Returns the columns needed by the MR job's scans of the given table, which Hive's column pruner
+   * records in the map-side plan. A table may be scanned several times in the same query (e.g. in a
+   * self-join), in which case the needed columns of all the scans are selected. Falls back to all
+   * the columns (i.e. `SELECT *`) if the table scans aren't known.
+   */
+  @VisibleForTesting
+  static Set<String> getMapRedSelectedFields(
+      List<TableScanOperator> tableScans, List<String> columnNames) {
+    Set<String> allFields = new HashSet<>(columnNames);
+    if (tableScans == null) {
+      return allFields;
+    }
+    Set<String> selectedFields = new HashSet<>();
+    for (TableScanOperator tableScan : tableScans) {
+      if (tableScan.getNeededColumns() == null) {
+        return allFields;
+      }
+      selectedFields.addAll(tableScan.getNeededColumns());
+    }
+    // Ignore Hive's virtual columns and partition columns, if any
+    selectedFields.retainAll(allFields);
+    return selectedFields;
+  }
+
+  /**
+   * Rejects the reads that need the values of the partition pseudo-columns, which the Read API
+   * doesn't return. The pseudo-columns can only be used in filters that are pushed down to
+   * BigQuery, otherwise Hive would see null values instead. Reads of all the table's columns, i.e.
+   * `SELECT *`, are accepted, and see null values for the pseudo-columns.
+   *
+   * @param selectedFields the columns that Hive reads, i.e. the projected columns and the columns
+   *     of the filters that aren't pushed down
+   * @param columnNames the table's columns
+   * @param mapRedTableScans the MR job's scans of the table, if known
+   * @param filterPushed whether the job pushes a filter down to the input format
+   */
+  @VisibleForTesting
+  static void checkPartitionPseudoColumns(
+      Set<String> selectedFields,
+      List<String> columnNames,
+      List<TableScanOperator> mapRedTableScans,
+      boolean filterPushed) {
+    List<String> readPseudoColumns =
+        Constants.PARTITION_PSEUDO_COLUMNS.stream()
+            .filter(selectedFields::contains)
+            .collect(Collectors.toList());
+    if (!readPseudoColumns.isEmpty() && !selectedFields.containsAll(columnNames)) {
+      throw new RuntimeException(
+          String.format(
+              "The partition pseudo-columns %s can only be used in filters that are pushed down to"
+                  + " BigQuery, e.g. comparisons with constants. They can't be selected or used in"
+                  + " other expressions since BigQuery doesn't return their values.",
+              readPseudoColumns));
+    }
+    if (mapRedTableScans == null || filterPushed) {
+      return;
+    }
+    // The MR engine doesn't push the filters down when the table is scanned by several aliases,
+    // and Hive can't evaluate the filters on the pseudo-columns itself
+    for (TableScanOperator tableScan : mapRedTableScans) {
+      ExprNodeGenericFuncDesc filterExpr = tableScan.getConf().getFilterExpr();
+      if (filterExpr != null
+          && filterExpr.getCols() != null
+          && !Collections.disjoint(filterExpr.getCols(), Constants.PARTITION_PSEUDO_COLUMNS)) {
+        throw new RuntimeException(
+            "Filters on the partition pseudo-columns aren't supported when the MR engine reads the"
+                + " table several times in the same job, e.g. in a self-join or a UNION ALL. Use"
+                + " the Tez engine instead.");
+      }
+    }
+  }
+
+  /**
+   * Creates splits without any stream that together return the given number of rows. The rows are
+   * spread evenly over the splits, with the first ones getting one more row if they don't divide
+   * evenly.
+   */
+  @VisibleForTesting
+  static InputSplit[] createRowCountSplits(
+      Path warehouseLocation, List<String> columnNames, HiveBigQueryConfig config, long numRows) {
+    long numSplits =
+        Math.min(
+            Math.max(1, (numRows + ROWS_PER_ROW_COUNT_SPLIT - 1) / ROWS_PER_ROW_COUNT_SPLIT),
+            MAX_ROW_COUNT_SPLITS);
+    InputSplit[] splits = new InputSplit[(int) numSplits];
+    for (int i = 0; i < numSplits; i++) {
+      long splitRows = numRows / numSplits + (i < numRows % numSplits ? 1 : 0);
+      splits[i] =
+          new BigQueryInputSplit(
+              warehouseLocation, new ArrayList<>(), columnNames, config, splitRows, 1L, true, -1);
+    }
+    return splits;
+  }
+
+  /**
+   * Returns whether none of the given scans of a table filters its rows. The scans' own filter
+   * expressions are checked, since the job configuration doesn't carry the filter when the MR
+   * engine scans the table with several aliases. Returns false if the scans aren't known.
+   */
+  @VisibleForTesting
+  static boolean isUnfiltered(List<TableScanOperator> tableScans) {
+    if (tableScans == null) {
+      return false;
+    }
+    for (TableScanOperator tableScan : tableScans) {
+      if (tableScan.getConf().getFilterExpr() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the maximum number of rows that the query needs from the given table, or -1 if it may
+   * need all of them. That is the case unless every scan of the table is either sampled by a number
+   * of rows (i.e. TABLESAMPLE(n ROWS)) or only followed by projections and a LIMIT. Any other
+   * operator in between, e.g. a residual filter or a sort, needs to see all the rows.
+   */
+  private static long getRowLimit(JobConf jobConf, TableId tableId) {
+    List<TableScanOperator> tableScans = getTableScans(jobConf, tableId);
+    if (tableScans == null) {
+      return -1;
+    }
+    long rowLimit = 0;
+    for (TableScanOperator tableScan : tableScans) {
+      long scanRowLimit = getRowLimit(tableScan);
+      if (scanRowLimit < 0) {
+        return -1;
+      }
+      rowLimit = Math.max(rowLimit, scanRowLimit);
+    }
+    return rowLimit;
+  }
+
+  private static long getRowLimit(TableScanOperator tableScan) {
+    if (tableScan.getConf().getRowLimit() >= 0) {
+      return tableScan.getConf().getRowLimit();
+    }
+    Operator<? extends OperatorDesc> operator = tableScan;
+    while (operator.getChildOperators() != null && operator.getChildOperators().size() == 1) {
+      operator = operator.getChildOperators().get(0);
+      if (operator instanceof LimitOperator) {
+        LimitDesc limitDesc = ((LimitOperator) operator).getConf();
+        Integer offset = limitDesc.getOffset();
+        return (long) limitDesc.getLimit() + (offset == null ? 0 : offset);
+      }
+      if (!(operator instanceof SelectOperator)) {
+        break;
+      }
+    }
+    return -1;
+  }
+
+  private static TableId getTableId(Properties tableProperties) {
+    String project = tableProperties.getProperty(HiveBigQueryConfig.PROJECT_KEY);
+    String dataset = tableProperties.getProperty(HiveBigQueryConfig.DATASET_KEY);
+    String table = tableProperties.getProperty(HiveBigQueryConfig.TABLE_KEY);
+    if (project == null || dataset == null || table == null) {
+      return null;
+    }
+    return TableId.of(project, dataset, table);
+  }
+
+  /**
+   * Returns the exact number of rows of the given table, as counted in its metadata, or null if the
+   * metadata doesn't account for all the rows, e.g. for views, external tables and tables that have
+   * rows in their streaming buffer.
+   */
+  private static Long getNumRowsFromMetadata(BigQueryClient bqClient, TableId tableId) {
+    if (tableId == null) {
+      return null;
+    }
+    TableInfo table = bqClient.getTable(tableId);
+    if (table == null || !(table.getDefinition() instanceof StandardTableDefinition)) {
+      return null;
+    }
+    StandardTableDefinition definition = table.getDefinition();
+    if (definition.getStreamingBuffer() != null) {
+      return null;
+    }
+    return definition.getNumRows();
+  }
+
+  /**
+   * Returns the column that is the cheapest to read, based on its type, among the given columns.
+   * Falls back to the first column if the column types aren't available.
+   */
+  @VisibleForTesting
+  static String getNarrowestColumn(
+      JobConf jobConf, String columnNameDelimiter, List<String> columnNames) {
+    String columnTypes = jobConf.get(serdeConstants.LIST_COLUMN_TYPES);
+    String[] allColumnNames =
+        checkNotNull(jobConf.get(serdeConstants.LIST_COLUMNS)).split(columnNameDelimiter);
+    if (columnTypes != null) {
+      List<TypeInfo> typeInfos = TypeInfoUtils.getTypeInfosFromTypeString(columnTypes);
+      if (typeInfos.size() == allColumnNames.length) {
+        String narrowestColumn = null;
+        int minWidth = Integer.MAX_VALUE;
+        for (int i = 0; i < allColumnNames.length; i++) {
+          int width = getEstimatedWidth(typeInfos.get(i));
+          if (columnNames.contains(allColumnNames[i])
+              && !Constants.PARTITION_PSEUDO_COLUMNS.contains(allColumnNames[i])
+              && width < minWidth) {
+            narrowestColumn = allColumnNames[i];
+            minWidth = width;
+          }
+        }
+        if (narrowestColumn != null) {
+          return narrowestColumn;
+        }
+      }
+    }
+    return columnNames.get(0);
+  }
+
+  /** Estimates the number of bytes that BigQuery reads for a value of the given type. */
+  private static int getEstimatedWidth(TypeInfo typeInfo) {
+    if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return 1024;
+    }
+    switch (((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory()) {
+      case BOOLEAN:
+        return 1;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case DATE:
+      case TIMESTAMP:
+        return 8;
+      case DECIMAL:
+        return 16;
+      default:
+        // Variable-length values, e.g. strings and bytes
+        return 64;
+    }
+  }
+
+  /** Retrieves the table's column names, excluding Hive's virtual columns. */
+  private static List<String> getColumnNames(JobConf jobConf, HiveBigQueryConfig config) {
+    String columnNameDelimiter = config.getColumnNameDelimiter();
+    List<String> columnNames =
+        new ArrayList<>(
+            Arrays.asList(
+                checkNotNull(jobConf.get(serdeConstants.LIST_COLUMNS)).split(columnNameDelimiter)));
+    // Remove the virtual columns
+    columnNames.removeAll(new HashSet<>(VirtualColumn.VIRTUAL_COLUMN_NAMES));
+    return columnNames;
+  }
+
+  /**
+   * Splits the session's streams in half, using the Storage Read API's SplitReadStream method,
+   * until there are at least the given number of streams. This lets the scan fan out further than
+   * the number of streams initially allocated by BigQuery, so that a large stream doesn't hold up
+   * the whole query. Streams that are too small to be split are left as is.
+   *
+   * @param splitReadStream calls the Storage Read API's SplitReadStream method
+   * @return the name of each resulting stream, along with the share of an original stream's rows
+   *     that it is expected to return.
+   */
+  @VisibleForTesting
+  static Map<String, Double> splitReadStreams(
+      List<ReadStream> streams,
+      int minStreams,
+      Function<SplitReadStreamRequest, SplitReadStreamResponse> splitReadStream) {
+    Map<String, Double> streamShares = new LinkedHashMap<>();
+    for (ReadStream stream : streams) {
+      streamShares.put(stream.getName(), 1.0);
+    }
+    if (streams.isEmpty() || streams.size() >= minStreams) {
+      return streamShares;
+    }
+    Deque<String> candidates = new ArrayDeque<>(streamShares.keySet());
+    while (streamShares.size() < minStreams && !candidates.isEmpty()) {
+      String streamName = candidates.poll();
+      SplitReadStreamResponse response =
+          splitReadStream.apply(
+              SplitReadStreamRequest.newBuilder().setName(streamName).setFraction(0.5).build());
+      if (!response.hasPrimaryStream() || !response.hasRemainderStream()) {
+        // The stream doesn't have enough data left to be split
+        continue;
+      }
+      // The original stream must not be read anymore since its rows are now split
+      // between the primary and remainder streams
+      double share = streamShares.remove(streamName) / 2;
+      String primaryStream = response.getPrimaryStream().getName();
+      String remainderStream = response.getRemainderStream().getName();
+      streamShares.put(primaryStream, share);
+      streamShares.put(remainderStream, share);
+      candidates.add(primaryStream);
+      candidates.add(remainderStream);
+    }
+    return streamShares;
+  }
+
+  /**
+   * Groups consecutive streams, in order, as long as the estimated size of each group doesn't
+   * exceed the given target size. Each stream is in its own group if the target size is 0.
+   *
+   * @param streamShares the name of each stream, along with the share of an original stream's rows
+   *     that it is expected to return
+   * @param estimatedStreamLength the estimated number of bytes read from an original stream
+   */
+  @VisibleForTesting
+  static List<List<String>> groupStreams(
+      Map<String, Double> streamShares, long estimatedStreamLength, long targetSize) {
+    List<List<String>> streamGroups = new ArrayList<>();
+    double lastGroupShare = 0;
+    for (Map.Entry<String, Double> entry : streamShares.entrySet()) {
+      double share = entry.getValue();
+      if (targetSize > 0
+          && !streamGroups.isEmpty()
+          && (lastGroupShare + share) * estimatedStreamLength <= targetSize) {
+        streamGroups.get(streamGroups.size() - 1).add(entry.getKey());
+        lastGroupShare += share;
+      } else {
+        streamGroups.add(new ArrayList<>(Collections.singletonList(entry.getKey())));
+        lastGroupShare = share;
+      }
+    }
+    return streamGroups;
+  }
+
+  /**
+   * Estimates the number of bytes read from each stream of a read session. The API doesn't report
+   * the amount of data that the session will scan, so this is derived from the table's size,
+   * prorated by the fraction of the columns that are read. Returns 1 if the table's size is
+   * unknown, e.g. for views and external tables.
+   */
+  @VisibleForTesting
+  static long estimateStreamLength(
+      Long numBytes, int numSelectedColumns, int numColumns, int numStreams) {
+    if (numBytes == null || numStreams == 0) {
+      return 1L;
+    }
+    double totalBytes = numBytes;
+    if (numColumns > 0 && numSelectedColumns < numColumns) {
+      totalBytes = totalBytes * numSelectedColumns / numColumns;
+    }
+    return Math.max(1L, (long) (totalBytes / numStreams));
   }
 
   /**
    * Creates and returns a ReadRowsHelper from the bigquery-connector-common library. The helper
-   * takes care of reading data from the split's BQ stream.
-   */
-  public ReadRowsHelper getReadRowsHelper() {
-    if (readRowsHelper == null) {
-      ReadRowsRequest.Builder request =
-          ReadRowsRequest.newBuilder().setReadStream(checkNotNull(getStreamName(), "name"));
-      readRowsHelper =
-          new ReadRowsHelper(
-              bqClientFactory,
-              request,
-              config.toReadSessionCreatorConfig().toReadRowsHelperOptions());
-    }
-    return readRowsHelper;
+   * takes care of reading data from one of the split's BQ streams, with the given client factory.
+   */
+  public ReadRowsHelper createReadRowsHelper(
+      BigQueryClientFactory bqClientFactory, String streamName) {
+    ReadRowsRequest.Builder request =
+        ReadRowsRequest.newBuilder().setReadStream(checkNotNull(streamName, "name"));
+    return new ReadRowsHelper(
+        bqClientFactory, request, config.toReadSessionCreatorConfig().toReadRowsHelperOptions());
   }
 }
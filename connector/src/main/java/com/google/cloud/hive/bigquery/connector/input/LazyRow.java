@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Row whose fields are only converted to Hive Writables when they are first accessed, e.g. by the
+ * row's object inspector. Rows typically keep a reference to the data currently held by the record
+ * reader, so they are only valid until the reader moves on to the next row.
+ */
+public abstract class LazyRow {
+
+  private final Object[] values;
+  private final boolean[] decoded;
+
+  protected LazyRow(int numColumns) {
+    values = new Object[numColumns];
+    decoded = new boolean[numColumns];
+  }
+
+  /** Converts the value of the given Hive column. */
+  protected abstract Object decodeField(int columnIndex);
+
+  /** Discards the values decoded so far. Must be called whenever the row points to new data. */
+  protected void reset() {
+    Arrays.fill(decoded, false);
+  }
+
+  public Object getField(int columnIndex) {
+    if (!decoded[columnIndex]) {
+      values[columnIndex] = decodeField(columnIndex);
+      decoded[columnIndex] = true;
+    }
+    return values[columnIndex];
+  }
+
+  public List<Object> getFields() {
+    for (int i = 0; i < values.length; i++) {
+      getField(i);
+    }
+    return Arrays.asList(values);
+  }
+}
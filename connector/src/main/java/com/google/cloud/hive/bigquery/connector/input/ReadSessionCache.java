@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import com.google.cloud.bigquery.connector.common.ReadSessionResponse;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.com.google.common.cache.Cache;
+import repackaged.by.hivebqconnector.com.google.common.cache.CacheBuilder;
+
+/**
+ * Process-wide cache of BigQuery read sessions, e.g. in HiveServer2. Reusing a session lets
+ * repeated queries against the same table skip the table lookup and the CreateReadSession call when
+ * generating splits. The streams of a session can be read again for as long as the session hasn't
+ * expired.
+ */
+public class ReadSessionCache {
+
+  // Sessions must remain valid long enough for the tasks to read their streams
+  private static final long MIN_REMAINING_SESSION_LIFETIME_SECONDS = TimeUnit.HOURS.toSeconds(1);
+  private static final long MAX_CACHED_SESSIONS = 1000;
+
+  private static final Cache<List<Object>, CachedSession> cache =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_SESSIONS)
+          // BigQuery read sessions expire after 6 hours at most
+          .expireAfterWrite(6, TimeUnit.HOURS)
+          .build();
+
+  private ReadSessionCache() {}
+
+  /**
+   * Returns the cached session for the given key, if it was created less than the given TTL ago and
+   * is still valid for long enough.
+   */
+  public static ReadSessionResponse get(List<Object> key, long ttlSeconds) {
+    return get(key, ttlSeconds, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  static ReadSessionResponse get(List<Object> key, long ttlSeconds, long nowMillis) {
+    CachedSession cachedSession = cache.getIfPresent(key);
+    if (cachedSession == null) {
+      return null;
+    }
+    ReadSession readSession = cachedSession.response.getReadSession();
+    boolean expiresSoon =
+        readSession.hasExpireTime()
+            && readSession.getExpireTime().getSeconds() - TimeUnit.MILLISECONDS.toSeconds(nowMillis)
+                < MIN_REMAINING_SESSION_LIFETIME_SECONDS;
+    if (nowMillis - cachedSession.creationTimeMillis > TimeUnit.SECONDS.toMillis(ttlSeconds)
+        || expiresSoon) {
+      cache.invalidate(key);
+      return null;
+    }
+    return cachedSession.response;
+  }
+
+  public static void put(List<Object> key, ReadSessionResponse response) {
+    put(key, response, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  static void put(List<Object> key, ReadSessionResponse response, long nowMillis) {
+    cache.put(key, new CachedSession(response, nowMillis));
+  }
+
+  private static class CachedSession {
+    final ReadSessionResponse response;
+    final long creationTimeMillis;
+
+    CachedSession(ReadSessionResponse response, long creationTimeMillis) {
+      this.response = response;
+      this.creationTimeMillis = creationTimeMillis;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import com.google.cloud.bigquery.connector.common.BigQueryClientFactory;
+import com.google.cloud.bigquery.connector.common.ReadRowsHelper;
+import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import org.apache.hadoop.conf.Configuration;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Returns the responses of a split's BigQuery read streams, which are read one after another, and
+ * keeps track of how far the reader has progressed through them. If the split has a row limit, no
+ * more responses are requested once that many rows have been received.
+ *
+ * <p>The progress reported by the Storage Read API in each response's stats is preferred. If it is
+ * not available, then the number of rows received is compared against the number of rows that the
+ * split is estimated to contain.
+ *
+ * <p>The BigQuery clients are leased from the {@link BigQueryClientRegistry} until the instance is
+ * closed.
+ */
+public class ReadStreamProgress implements Iterator<ReadRowsResponse> {
+
+  /** The responses of a single read stream, which can be cancelled before they're all read. */
+  @VisibleForTesting
+  public interface StreamReader {
+    Iterator<ReadRowsResponse> readRows();
+
+    void close();
+  }
+
+  private final List<String> streamNames;
+  private final long estimatedRowCount;
+  private final long rowLimit;
+  private final Function<String, StreamReader> streamOpener;
+  // Null if the streams aren't read with the registry's clients
+  private final BigQueryClientRegistry.Lease lease;
+  // Written under the instance's lock, but also read by cancel(), which doesn't take the lock
+  private volatile StreamReader streamReader;
+  private volatile boolean cancelled = false;
+  private int nextStreamIndex = 0;
+  private Iterator<ReadRowsResponse> responses = Collections.emptyIterator();
+  // Updated by whichever thread fetches the responses, and read by the task's progress reporter
+  private volatile int numCompletedStreams;
+  private volatile long rowsRead;
+  private volatile double streamProgress;
+
+  public ReadStreamProgress(BigQueryInputSplit inputSplit, Configuration conf) {
+    this(inputSplit, BigQueryClientRegistry.acquire(conf));
+  }
+
+  private ReadStreamProgress(BigQueryInputSplit inputSplit, BigQueryClientRegistry.Lease lease) {
+    this(
+        inputSplit.getStreamNames(),
+        inputSplit.getEstimatedRowCount(),
+        inputSplit.getRowLimit(),
+        streamName -> {
+          ReadRowsHelper readRowsHelper =
+              inputSplit.createReadRowsHelper(
+                  lease.getInjector().getInstance(BigQueryClientFactory.class), streamName);
+          return new StreamReader() {
+            @Override
+            public Iterator<ReadRowsResponse> readRows() {
+              return readRowsHelper.readRows();
+            }
+
+            @Override
+            public void close() {
+              readRowsHelper.close();
+            }
+          };
+        },
+        lease);
+  }
+
+  @VisibleForTesting
+  public ReadStreamProgress(
+      List<String> streamNames,
+      long estimatedRowCount,
+      long rowLimit,
+      Function<String, StreamReader> streamOpener) {
+    this(streamNames, estimatedRowCount, rowLimit, streamOpener, null);
+  }
+
+  private ReadStreamProgress(
+      List<String> streamNames,
+      long estimatedRowCount,
+      long rowLimit,
+      Function<String, StreamReader> streamOpener,
+      BigQueryClientRegistry.Lease lease) {
+    this.streamNames = streamNames;
+    this.estimatedRowCount = estimatedRowCount;
+    this.rowLimit = rowLimit;
+    this.streamOpener = streamOpener;
+    this.lease = lease;
+  }
+
+  @Override
+  public synchronized boolean hasNext() {
+    if (cancelled) {
+      closeStream();
+      return false;
+    }
+    if (rowLimit >= 0 && rowsRead >= rowLimit) {
+      // Stop the current stream right away instead of letting it fetch more responses
+      closeStream();
+      return false;
+    }
+    while (!responses.hasNext()) {
+      if (cancelled) {
+        // The current stream ended because it was cancelled, so it isn't complete
+        closeStream();
+        return false;
+      }
+      if (nextStreamIndex > 0) {
+        // The current stream is exhausted
+        numCompletedStreams = nextStreamIndex;
+        streamProgress = 0;
+      }
+      if (nextStreamIndex >= streamNames.size()) {
+        return false;
+      }
+      closeStream();
+      streamReader = streamOpener.apply(streamNames.get(nextStreamIndex++));
+      if (cancelled) {
+        // The reader was closed while the stream was being opened
+        closeStream();
+        return false;
+      }
+      responses = streamReader.readRows();
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized ReadRowsResponse next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    ReadRowsResponse response = responses.next();
+    rowsRead += response.getRowCount();
+    if (response.hasStats()) {
+      double atResponseEnd = response.getStats().getProgress().getAtResponseEnd();
+      if (atResponseEnd > streamProgress) {
+        streamProgress = atResponseEnd;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Cancels the stream that is currently being read, if any, and stops opening the next ones. This
+   * doesn't wait for the instance's lock, so that a background thread that is blocked waiting for a
+   * response in {@link #hasNext()} is woken up instead of holding up the caller.
+   */
+  public void cancel() {
+    cancelled = true;
+    StreamReader currentReader = streamReader;
+    if (currentReader != null) {
+      currentReader.close();
+    }
+  }
+
+  /**
+   * Cancels the stream that is currently being read, if any, and releases the BigQuery clients. The
+   * responses may be fetched by a background thread, which must be stopped with {@link #cancel()}
+   * first.
+   */
+  public synchronized void close() {
+    cancelled = true;
+    closeStream();
+    if (lease != null) {
+      lease.close();
+    }
+  }
+
+  private void closeStream() {
+    if (streamReader != null) {
+      streamReader.close();
+      streamReader = null;
+      responses = Collections.emptyIterator();
+    }
+  }
+
+  /** Returns the number of rows received so far. */
+  public long getRowsRead() {
+    return rowsRead;
+  }
+
+  /** Returns the fraction of the split that has been read so far, between 0 and 1. */
+  public float getProgress() {
+    int numStreams = streamNames.size();
+    if (numStreams == 0 || numCompletedStreams >= numStreams) {
+      return 1.0f;
+    }
+    if (streamProgress > 0) {
+      return (float) Math.min((numCompletedStreams + streamProgress) / numStreams, 1.0);
+    }
+    if (estimatedRowCount > 0) {
+      return Math.min((float) rowsRead / estimatedRowCount, 1.0f);
+    }
+    return (float) numCompletedStreams / numStreams;
+  }
+}
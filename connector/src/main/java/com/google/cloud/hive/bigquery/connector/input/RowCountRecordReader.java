@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Returns rows without any values, for scans that don't need the value of any column (e.g. COUNT(*)
+ * or EXISTS). The rows are either counted in the responses of the split's streams, without decoding
+ * their data, or, if the split has no streams, taken from the table's metadata. Produces either
+ * individual rows or, for Hive's vectorized engine, batches of rows.
+ */
+public class RowCountRecordReader implements RecordReader<NullWritable, Object> {
+
+  // Only set if the split has streams
+  private final ReadStreamProgress progress;
+  // Number of rows available so far
+  private long numRows;
+  private final int numColumns;
+  // Only set when producing batches for Hive's vectorized engine
+  private final VectorizedRowBatchCtx rbCtx;
+  // Number of rows returned to Hive so far
+  private long pos;
+
+  public RowCountRecordReader(BigQueryInputSplit inputSplit, JobConf jobConf, boolean vectorized) {
+    if (inputSplit.getStreamNames().isEmpty()) {
+      progress = null;
+      numRows = inputSplit.getEstimatedRowCount();
+    } else {
+      progress = new ReadStreamProgress(inputSplit, jobConf);
+    }
+    numColumns = inputSplit.getColumnNames().size();
+    rbCtx = vectorized ? Utilities.getVectorizedRowBatchCtx(jobConf) : null;
+  }
+
+  @Override
+  public boolean next(NullWritable key, Object value) {
+    while (pos >= numRows) {
+      if (progress == null || !progress.hasNext()) {
+        return false;
+      }
+      numRows += progress.next().getRowCount();
+    }
+    if (value instanceof VectorizedRowBatch) {
+      VectorizedRowBatch batch = (VectorizedRowBatch) value;
+      batch.reset();
+      for (ColumnVector columnVector : batch.cols) {
+        if (columnVector != null) {
+          columnVector.noNulls = false;
+          columnVector.isRepeating = true;
+          columnVector.isNull[0] = true;
+        }
+      }
+      batch.size = (int) Math.min(batch.getMaxSize(), numRows - pos);
+      pos += batch.size;
+    } else {
+      ((ObjectWritable) value).set(new Object[numColumns]);
+      pos++;
+    }
+    return true;
+  }
+
+  @Override
+  public NullWritable createKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public Object createValue() {
+    return rbCtx != null ? rbCtx.createVectorizedRowBatch() : new ObjectWritable();
+  }
+
+  @Override
+  public long getPos() {
+    return pos;
+  }
+
+  @Override
+  public float getProgress() {
+    if (progress != null) {
+      return progress.getProgress();
+    }
+    return numRows == 0 ? 1.0f : (float) pos / numRows;
+  }
+
+  @Override
+  public void close() {
+    if (progress != null) {
+      progress.close();
+    }
+  }
+}
@@ -15,77 +15,183 @@
  */
 package com.google.cloud.hive.bigquery.connector.input.arrow;
 
-import com.google.cloud.bigquery.connector.common.ReadRowsHelper;
 import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
 import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
-import java.io.*;
-import java.util.Collections;
+import com.google.cloud.hive.bigquery.connector.input.ReadStreamProgress;
+import com.google.cloud.hive.bigquery.connector.utils.PipelinedIterator;
+import com.google.cloud.hive.bigquery.connector.utils.arrow.ArrowCompressionCodecFactory;
+import com.google.cloud.hive.bigquery.connector.utils.arrow.ArrowUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
 import repackaged.by.hivebqconnector.com.google.protobuf.ByteString;
 import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
-import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorLoader;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
-import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.ArrowStreamReader;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.CompressionCodec;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.ReadChannel;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.message.MessageSerializer;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.types.pojo.Schema;
 
 /**
- * Reads Arrow-formatted batches of rows (in the form of VectorSchemaRoot objects) from the BigQuery
- * Storage Read API responses.
+ * Reads the Arrow record batches of a BigQuery read stream. The stream's schema is deserialized
+ * only once, and every record batch is then loaded into the same VectorSchemaRoot straight from the
+ * buffers backing the response, i.e. without making intermediate copies on the heap.
+ *
+ * <p>If background threads are enabled, responses are instead decoded ahead of time by a thread
+ * pool, each into its own VectorSchemaRoot, while the caller processes the current batch.
  */
 public class ArrowBatchReader extends RecordReader<NullWritable, VectorSchemaRoot> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(ArrowBatchReader.class);
+
   private VectorSchemaRoot current;
   private final Iterator<ReadRowsResponse> responseIterator;
-  private Iterator<VectorSchemaRoot> arrowReaderIterator;
+  private final ReadStreamProgress progress;
   private final BufferAllocator bufferAllocator;
-  private ByteString schema;
+  private Schema schema;
+  private VectorSchemaRoot root;
+  private VectorLoader vectorLoader;
+  private final CompressionCodec.Factory compressionCodecFactory;
+  // Decodes the responses in the background. Only used if background threads are enabled.
+  private final PipelinedIterator<ReadRowsResponse, VectorSchemaRoot> pipeline;
 
   public ArrowBatchReader(BigQueryInputSplit inputSplit, Configuration conf) {
-    ReadRowsHelper readRowsHelper = inputSplit.getReadRowsHelper();
-    responseIterator = readRowsHelper.readRows();
-    arrowReaderIterator = Collections.emptyIterator();
-    bufferAllocator =
-        new RootAllocator(
-            HiveConf.getLongVar(conf, HiveConf.ConfVars.HIVE_ARROW_ROOT_ALLOCATOR_LIMIT));
+    this(
+        new ReadStreamProgress(inputSplit, conf),
+        ArrowUtils.createChildAllocator(
+            conf, "ArrowBatchReader-" + inputSplit.getStreamNames().get(0)),
+        conf);
+  }
+
+  @VisibleForTesting
+  ArrowBatchReader(
+      ReadStreamProgress progress, BufferAllocator bufferAllocator, Configuration conf) {
+    this.progress = progress;
+    responseIterator = progress;
+    this.bufferAllocator = bufferAllocator;
+    // Used to decompress the record batches, if compression was requested for the read session
+    compressionCodecFactory =
+        ReflectionUtils.newInstance(
+            conf.getClass(
+                HiveBigQueryConfig.ARROW_COMPRESSION_CODEC_FACTORY_KEY,
+                ArrowCompressionCodecFactory.class,
+                CompressionCodec.Factory.class),
+            conf);
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, null);
+    int numBackgroundThreads = config.getNumBackgroundThreadsPerStream();
+    if (numBackgroundThreads > 0) {
+      // Each batch being decoded or waiting to be consumed gets its own VectorSchemaRoot. Each
+      // thread decodes one batch while the configured number of decoded batches wait.
+      pipeline =
+          new PipelinedIterator<>(
+              responseIterator,
+              this::loadIntoNewRoot,
+              numBackgroundThreads,
+              numBackgroundThreads + config.getNumPrebufferReadRowsResponses(),
+              VectorSchemaRoot::close,
+              "bq-arrow-decoder");
+    } else {
+      pipeline = null;
+    }
   }
 
   @Override
   public void initialize(InputSplit inputSplit, TaskAttemptContext context) {}
 
+  /**
+   * Retrieves the Arrow schema from the BQ read response. The schema is the same for all the
+   * responses of the stream, so it is only deserialized once.
+   */
+  private synchronized Schema getSchema(ReadRowsResponse response) throws IOException {
+    if (schema == null) {
+      schema =
+          MessageSerializer.deserializeSchema(
+              new ReadChannel(
+                  new ByteStringChannel(response.getArrowSchema().getSerializedSchema())));
+    }
+    return schema;
+  }
+
+  /** Loads the Arrow data from the given response into the given VectorSchemaRoot. */
+  private void loadBatch(ReadRowsResponse response, VectorSchemaRoot target, VectorLoader loader)
+      throws IOException {
+    ByteString batchData = response.getArrowRecordBatch().getSerializedRecordBatch();
+    if (batchData.isEmpty()) {
+      target.setRowCount(0);
+    } else {
+      try (ArrowRecordBatch batch =
+          MessageSerializer.deserializeRecordBatch(
+              new ReadChannel(new ByteStringChannel(batchData)), bufferAllocator)) {
+        loader.load(batch);
+      }
+    }
+  }
+
+  private VectorSchemaRoot loadIntoNewRoot(ReadRowsResponse response) {
+    try {
+      VectorSchemaRoot batchRoot = VectorSchemaRoot.create(getSchema(response), bufferAllocator);
+      try {
+        loadBatch(response, batchRoot, new VectorLoader(batchRoot, compressionCodecFactory));
+      } catch (IOException | RuntimeException e) {
+        batchRoot.close();
+        throw e;
+      }
+      return batchRoot;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load the next arrow batch", e);
+    }
+  }
+
   /**
    * Fetches a new VectorSchemaRoot, i.e. a batch of Arrow-formatted data, from the BQ read
    * response.
    */
   @Override
   public boolean nextKeyValue() {
-    if (responseIterator.hasNext() && !arrowReaderIterator.hasNext()) {
-      ReadRowsResponse response = responseIterator.next();
-      if (schema == null) {
-        // Retrieve the Arrow schema from the BQ read response
-        schema = response.getArrowSchema().getSerializedSchema();
+    if (pipeline != null) {
+      if (current != null) {
+        // The consumer is done with the previous batch
+        current.close();
+        current = null;
       }
-      ByteArrayInputStream schemaInputStream = new ByteArrayInputStream(schema.toByteArray());
-      // Retrieve the Arrow data
-      ByteString batchData = response.getArrowRecordBatch().getSerializedRecordBatch();
-      ByteArrayInputStream batchInputStream = new ByteArrayInputStream(batchData.toByteArray());
-      // Merge the schema and data together into a single input stream and create
-      // a new Arrow reader
-      SequenceInputStream bytesWithSchemaStream =
-          new SequenceInputStream(schemaInputStream, batchInputStream);
-      ArrowStreamReader reader = new ArrowStreamReader(bytesWithSchemaStream, bufferAllocator);
-      arrowReaderIterator = new ArrowReaderIterator(reader);
-    }
-    if (arrowReaderIterator.hasNext()) {
-      current = arrowReaderIterator.next();
+      if (!pipeline.hasNext()) {
+        return false;
+      }
+      current = pipeline.next();
       return true;
     }
-    current = null;
-    return false;
+    if (!responseIterator.hasNext()) {
+      current = null;
+      return false;
+    }
+    ReadRowsResponse response = responseIterator.next();
+    try {
+      if (root == null) {
+        root = VectorSchemaRoot.create(getSchema(response), bufferAllocator);
+        vectorLoader = new VectorLoader(root, compressionCodecFactory);
+      }
+      // Load the Arrow data into the existing VectorSchemaRoot
+      loadBatch(response, root, vectorLoader);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load the next arrow batch", e);
+    }
+    current = root;
+    return true;
   }
 
   @Override
@@ -98,60 +204,81 @@ public class ArrowBatchReader extends RecordReader<NullWritable, VectorSchemaRoo
     return current;
   }
 
+  /**
+   * Returns the fraction of the stream that has been read. With background threads, this includes
+   * the responses that are already decoded but not consumed yet.
+   */
   @Override
   public float getProgress() {
-    // TODO
-    return -1;
+    return progress.getProgress();
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    if (pipeline != null) {
+      // Unblocks the background thread if it is waiting for a response, so it stops right away
+      progress.cancel();
+      pipeline.close();
+      if (current != null) {
+        current.close();
+      }
+    }
+    if (root != null) {
+      root.close();
+      root = null;
+    }
+    current = null;
+    progress.close();
+    LOG.info(
+        "Closing Arrow reader. Peak memory allocation: {} bytes. Process-wide allocation: {}"
+            + " bytes (peak: {} bytes)",
+        bufferAllocator.getPeakMemoryAllocation(),
+        ArrowUtils.getAllocatedMemory(),
+        ArrowUtils.getPeakMemoryAllocation());
+    bufferAllocator.close();
+  }
 
-  // TODO: The below class was copied from the Spark connector's ArrowBinaryIterator. It could be
-  //  moved to the bigquery-connector-common library to avoid code duplication.
-  private static class ArrowReaderIterator implements Iterator<VectorSchemaRoot> {
+  /** Exposes the buffers backing a ByteString as a channel without copying them first. */
+  private static class ByteStringChannel implements ReadableByteChannel {
 
-    private final ArrowStreamReader reader;
-    VectorSchemaRoot current = null;
-    boolean closed = false;
+    private final List<ByteBuffer> buffers;
+    private int index = 0;
+    private boolean open = true;
 
-    ArrowReaderIterator(ArrowStreamReader reader) {
-      this.reader = reader;
+    ByteStringChannel(ByteString bytes) {
+      this.buffers = bytes.asReadOnlyByteBufferList();
     }
 
     @Override
-    public boolean hasNext() {
-      if (current != null) {
-        return true;
-      }
-      if (closed) {
-        return false;
-      }
-      try {
-        boolean res = reader.loadNextBatch();
-        if (res) {
-          current = reader.getVectorSchemaRoot();
-        } else {
-          ensureClosed();
+    public int read(ByteBuffer dst) {
+      int numBytesRead = 0;
+      while (dst.hasRemaining() && index < buffers.size()) {
+        ByteBuffer src = buffers.get(index);
+        if (!src.hasRemaining()) {
+          index++;
+          continue;
         }
-        return res;
-      } catch (IOException e) {
-        throw new UncheckedIOException("Failed to load the next arrow batch", e);
+        int length = Math.min(src.remaining(), dst.remaining());
+        ByteBuffer slice = src.duplicate();
+        slice.limit(slice.position() + length);
+        dst.put(slice);
+        src.position(src.position() + length);
+        numBytesRead += length;
+      }
+      if (numBytesRead == 0 && index >= buffers.size()) {
+        return -1;
       }
+      return numBytesRead;
     }
 
     @Override
-    public VectorSchemaRoot next() {
-      VectorSchemaRoot res = current;
-      current = null;
-      return res;
+    public boolean isOpen() {
+      return open;
     }
 
-    private void ensureClosed() throws IOException {
-      if (!closed) {
-        reader.close();
-        closed = true;
-      }
+    @Override
+    public void close() {
+      open = false;
     }
   }
 }
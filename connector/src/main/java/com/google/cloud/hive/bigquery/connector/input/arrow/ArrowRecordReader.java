@@ -15,14 +15,18 @@
  */
 package com.google.cloud.hive.bigquery.connector.input.arrow;
 
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
 import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
+import com.google.cloud.hive.bigquery.connector.input.LazyRow;
 import com.google.cloud.hive.bigquery.connector.utils.arrow.ArrowSerializer;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.RecordReader;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.FieldVector;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
 
@@ -37,53 +41,138 @@ public class ArrowRecordReader
   private int numRowsLeftInBatch;
   private final RecordReader<NullWritable, VectorSchemaRoot> arrowBatchReader;
   private final List<String> columnNames;
+  // When set, the row array and the Writables it contains are reused from one row to the next.
+  // This is safe because Hive is done with a row by the time it asks for the next one.
+  private final boolean reuseObjects;
+  private Object[] reusedRow;
+  private Object[] reusedWritables;
+  // Maps the index of each Arrow vector to the position of the corresponding Hive column
+  private int[] columnIndices;
+  // Maps the position of each Hive column to the index of the corresponding Arrow vector, if any
+  private int[] vectorIndices;
+  // One converter per Arrow vector, specialized for the vector's type
+  private ArrowSerializer.Converter[] converters;
+  // When set, rows only convert the values that Hive actually accesses
+  private final boolean lazyRows;
+  private ArrowLazyRow lazyRow;
+  // Number of rows returned to Hive so far
+  private long pos;
 
   public ArrowRecordReader(BigQueryInputSplit inputSplit, JobConf jobConf) {
-    arrowBatchReader = new ArrowBatchReader(inputSplit, jobConf);
-    columnNames = inputSplit.getColumnNames();
+    this(inputSplit, jobConf, HiveBigQueryConfig.from(jobConf, null));
+  }
+
+  private ArrowRecordReader(
+      BigQueryInputSplit inputSplit, JobConf jobConf, HiveBigQueryConfig config) {
+    this(
+        new ArrowBatchReader(inputSplit, jobConf),
+        inputSplit.getColumnNames(),
+        config.isReadReuseObjects(),
+        config.isReadLazyRows());
+  }
+
+  @VisibleForTesting
+  ArrowRecordReader(
+      RecordReader<NullWritable, VectorSchemaRoot> arrowBatchReader,
+      List<String> columnNames,
+      boolean reuseObjects,
+      boolean lazyRows) {
+    this.arrowBatchReader = arrowBatchReader;
+    this.columnNames = columnNames;
+    this.reuseObjects = reuseObjects;
+    if (reuseObjects) {
+      reusedRow = new Object[columnNames.size()];
+      reusedWritables = new Object[columnNames.size()];
+    }
+    this.lazyRows = lazyRows;
+    if (lazyRows) {
+      lazyRow = new ArrowLazyRow();
+    }
+  }
+
+  /**
+   * Resolves the position of each of the given batch's vectors in the Hive row, as well as the
+   * converter to use for each vector. This is done only once per batch schema so that serializing
+   * rows doesn't involve any name lookups or type checks.
+   */
+  private void createConversionPlan(VectorSchemaRoot schemaRoot) {
+    List<FieldVector> fieldVectors = schemaRoot.getFieldVectors();
+    columnIndices = new int[fieldVectors.size()];
+    vectorIndices = new int[columnNames.size()];
+    Arrays.fill(vectorIndices, -1);
+    converters = new ArrowSerializer.Converter[fieldVectors.size()];
+    for (int i = 0; i < columnIndices.length; i++) {
+      String name = fieldVectors.get(i).getName();
+      columnIndices[i] = columnNames.indexOf(name);
+      if (columnIndices[i] == -1) {
+        throw new RuntimeException(
+            "Column `" + name + "` from the read stream is not in the table");
+      }
+      vectorIndices[columnIndices[i]] = i;
+      converters[i] = ArrowSerializer.createConverter(fieldVectors.get(i));
+    }
+  }
+
+  /** Converts the value of the given Arrow vector at the given row. */
+  private Object convertValue(int vectorIndex, int rowId) {
+    if (!reuseObjects) {
+      return converters[vectorIndex].convert(rowId, null);
+    }
+    int colIndex = columnIndices[vectorIndex];
+    Object value = converters[vectorIndex].convert(rowId, reusedWritables[colIndex]);
+    if (value != null) {
+      // Hold on to the Writable even if the next values are null
+      reusedWritables[colIndex] = value;
+    }
+    return value;
   }
 
   /**
    * Converts the given Arrow-formatted row into a serialized object made of "Writable" components
    * that Hive can handle.
    */
-  private Object serializeRow(VectorSchemaRoot schemaRoot, int rowId) {
-    int numColumnsInSchemaRoot = schemaRoot.getFieldVectors().size();
-    Object[] row = new Object[columnNames.size()];
-    for (int i = 0; i < numColumnsInSchemaRoot; i++) {
-      FieldVector fieldVector = schemaRoot.getVector(i);
-      int colIndex = columnNames.indexOf(fieldVector.getName());
-      row[colIndex] = ArrowSerializer.serializeVector(fieldVector, rowId);
-    }
+  private Object serializeRow(int rowId) {
     numRowsLeftInBatch--;
+    if (lazyRows) {
+      lazyRow.setRowId(rowId);
+      return lazyRow;
+    }
+    Object[] row = reuseObjects ? reusedRow : new Object[columnNames.size()];
+    for (int i = 0; i < columnIndices.length; i++) {
+      row[columnIndices[i]] = convertValue(i, rowId);
+    }
     return row;
   }
 
   @Override
   public float getProgress() throws IOException {
-    // TODO
-    return -1;
+    try {
+      return arrowBatchReader.getProgress();
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted", ex);
+    }
   }
 
   @Override
   public boolean next(NullWritable nullWritable, ObjectWritable objectWritable) throws IOException {
     try {
-      if (numRowsLeftInBatch > 0) {
-        // There still are some unprocessed rows in the current batch.
-        // Serialize the next row in the batch.
-        objectWritable.set(
-            serializeRow(currentBatch, currentBatch.getRowCount() - numRowsLeftInBatch));
-        return true;
-      } else if (this.arrowBatchReader.nextKeyValue()) {
+      while (numRowsLeftInBatch == 0) {
+        if (!this.arrowBatchReader.nextKeyValue()) {
+          // No more rows to be processed
+          return false;
+        }
         // Get the next batch
+        VectorSchemaRoot previousBatch = currentBatch;
         currentBatch = this.arrowBatchReader.getCurrentValue();
+        if (currentBatch != previousBatch) {
+          createConversionPlan(currentBatch);
+        }
         numRowsLeftInBatch = currentBatch.getRowCount();
-        // Serialize the first row in the batch
-        objectWritable.set(serializeRow(currentBatch, 0));
-        return true;
       }
-      // No more rows to be processed
-      return false;
+      // Serialize the next row in the batch
+      objectWritable.set(serializeRow(currentBatch.getRowCount() - numRowsLeftInBatch));
+      pos++;
+      return true;
     } catch (InterruptedException ex) {
       throw new IOException("Interrupted", ex);
     }
@@ -101,12 +190,32 @@ public class ArrowRecordReader
 
   @Override
   public long getPos() throws IOException {
-    // TODO
-    return -1;
+    return pos;
   }
 
   @Override
   public void close() throws IOException {
     arrowBatchReader.close();
   }
+
+  /** Row that converts the values of the current batch's vectors on demand. */
+  private class ArrowLazyRow extends LazyRow {
+
+    private int rowId;
+
+    ArrowLazyRow() {
+      super(columnNames.size());
+    }
+
+    void setRowId(int rowId) {
+      this.rowId = rowId;
+      reset();
+    }
+
+    @Override
+    protected Object decodeField(int columnIndex) {
+      int vectorIndex = vectorIndices[columnIndex];
+      return vectorIndex < 0 ? null : convertValue(vectorIndex, rowId);
+    }
+  }
 }
@@ -16,6 +16,10 @@
 package com.google.cloud.hive.bigquery.connector.input.arrow;
 
 import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
+import com.google.cloud.hive.bigquery.connector.input.RowCountRecordReader;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedInputFormatInterface;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedSupport;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.mapred.InputFormat;
@@ -24,7 +28,8 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
 
-public class BigQueryArrowInputFormat implements InputFormat<NullWritable, ObjectWritable> {
+public class BigQueryArrowInputFormat
+    implements InputFormat<NullWritable, ObjectWritable>, VectorizedInputFormatInterface {
 
   /**
    * Creates hadoop splits (i.e BigQuery streams) so that each task can read data from the
@@ -41,8 +46,25 @@ public class BigQueryArrowInputFormat implements InputFormat<NullWritable, Objec
   }
 
   @Override
+  @SuppressWarnings({"rawtypes", "unchecked"})
   public RecordReader<NullWritable, ObjectWritable> getRecordReader(
       InputSplit inputSplit, JobConf jobConf, Reporter reporter) {
+    ((BigQueryInputSplit) inputSplit).restoreSessionState(jobConf);
+    if (((BigQueryInputSplit) inputSplit).isRowCountOnly()) {
+      return (RecordReader)
+          new RowCountRecordReader(
+              (BigQueryInputSplit) inputSplit, jobConf, Utilities.getIsVectorized(jobConf));
+    }
+    if (Utilities.getIsVectorized(jobConf)) {
+      // Hive's vectorized engine expects whole batches of rows instead of individual rows
+      return (RecordReader)
+          new VectorizedArrowRecordReader((BigQueryInputSplit) inputSplit, jobConf);
+    }
     return new ArrowRecordReader((BigQueryInputSplit) inputSplit, jobConf);
   }
+
+  @Override
+  public VectorizedSupport.Support[] getSupportedFeatures() {
+    return new VectorizedSupport.Support[0];
+  }
 }
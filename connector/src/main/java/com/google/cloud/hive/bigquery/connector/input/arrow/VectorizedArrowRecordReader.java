@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input.arrow;
+
+import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
+import com.google.cloud.hive.bigquery.connector.utils.arrow.ArrowVectorizedSerializer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.RecordReader;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.FieldVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
+
+/**
+ * Record reader used by Hive's vectorized execution engine. Instead of producing one row at a time,
+ * it fills entire VectorizedRowBatches directly from the Arrow vectors returned by the BigQuery
+ * Storage Read API.
+ */
+public class VectorizedArrowRecordReader
+    implements org.apache.hadoop.mapred.RecordReader<NullWritable, VectorizedRowBatch> {
+
+  private final RecordReader<NullWritable, VectorSchemaRoot> arrowBatchReader;
+  private final VectorizedRowBatchCtx rbCtx;
+  private final List<String> rowColumnNames;
+  private VectorSchemaRoot currentBatch;
+  private int numRowsReadInBatch;
+  // Number of rows returned to Hive so far
+  private long pos;
+  // Maps the index of each Arrow vector to the index of the corresponding Hive column vector.
+  // All the batches of a read session share the same schema, so it is resolved only once.
+  private int[] columnMapping;
+
+  public VectorizedArrowRecordReader(BigQueryInputSplit inputSplit, JobConf jobConf) {
+    this(new ArrowBatchReader(inputSplit, jobConf), Utilities.getVectorizedRowBatchCtx(jobConf));
+  }
+
+  @VisibleForTesting
+  VectorizedArrowRecordReader(
+      RecordReader<NullWritable, VectorSchemaRoot> arrowBatchReader, VectorizedRowBatchCtx rbCtx) {
+    this.arrowBatchReader = arrowBatchReader;
+    this.rbCtx = rbCtx;
+    this.rowColumnNames = Arrays.asList(rbCtx.getRowColumnNames());
+  }
+
+  private int[] createColumnMapping(VectorSchemaRoot schemaRoot) {
+    List<FieldVector> fieldVectors = schemaRoot.getFieldVectors();
+    int[] mapping = new int[fieldVectors.size()];
+    for (int i = 0; i < mapping.length; i++) {
+      String name = fieldVectors.get(i).getName();
+      mapping[i] = rowColumnNames.indexOf(name);
+      if (mapping[i] == -1) {
+        throw new RuntimeException(
+            "Column `" + name + "` from the read stream is not in the table");
+      }
+    }
+    return mapping;
+  }
+
+  @Override
+  public boolean next(NullWritable key, VectorizedRowBatch batch) throws IOException {
+    batch.reset();
+    try {
+      while (currentBatch == null || numRowsReadInBatch >= currentBatch.getRowCount()) {
+        if (!arrowBatchReader.nextKeyValue()) {
+          // No more rows to be processed
+          return false;
+        }
+        // Get the next Arrow batch
+        currentBatch = arrowBatchReader.getCurrentValue();
+        if (columnMapping == null) {
+          columnMapping = createColumnMapping(currentBatch);
+        }
+        numRowsReadInBatch = 0;
+      }
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted", ex);
+    }
+    // An Arrow batch may contain more rows than a Hive batch can hold, in which case
+    // it is spread over multiple calls.
+    int numRows = Math.min(batch.getMaxSize(), currentBatch.getRowCount() - numRowsReadInBatch);
+    for (int i = 0; i < columnMapping.length; i++) {
+      ColumnVector columnVector = batch.cols[columnMapping[i]];
+      if (columnVector != null) {
+        ArrowVectorizedSerializer.serializeVector(
+            currentBatch.getVector(i), numRowsReadInBatch, numRows, columnVector);
+      }
+    }
+    batch.size = numRows;
+    numRowsReadInBatch += numRows;
+    pos += numRows;
+    return true;
+  }
+
+  @Override
+  public NullWritable createKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public VectorizedRowBatch createValue() {
+    return rbCtx.createVectorizedRowBatch();
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return pos;
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    try {
+      return arrowBatchReader.getProgress();
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted", ex);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    arrowBatchReader.close();
+  }
+}
@@ -15,12 +15,17 @@
  */
 package com.google.cloud.hive.bigquery.connector.input.avro;
 
-import com.google.cloud.bigquery.connector.common.ReadRowsHelper;
 import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
 import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
+import com.google.cloud.hive.bigquery.connector.input.LazyRow;
+import com.google.cloud.hive.bigquery.connector.input.ReadStreamProgress;
+import com.google.cloud.hive.bigquery.connector.utils.PipelinedIterator;
 import com.google.cloud.hive.bigquery.connector.utils.avro.AvroSerializer;
 import com.google.cloud.hive.bigquery.connector.utils.avro.AvroUtils;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -32,6 +37,7 @@ import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import repackaged.by.hivebqconnector.com.google.protobuf.ByteString;
 
@@ -43,15 +49,68 @@ public class AvroRecordReader implements RecordReader<NullWritable, ObjectWritab
 
   private final Parser parser = new Parser();
   private final Iterator<ReadRowsResponse> responseIterator;
+  private final ReadStreamProgress progress;
+  // Number of rows returned to Hive so far
+  private long pos;
   private Iterator<GenericRecord> recordIterator;
   private Schema schema;
   private final List<String> columnNames;
+  // Fields of the Avro records, along with the position of the corresponding Hive column.
+  // Both are resolved once per stream when the schema is received.
+  private Schema.Field[] fields;
+  private int[] columnIndices;
+  // Maps the position of each Hive column to the index of the corresponding Avro field, if any
+  private int[] fieldIndices;
+  // When set, rows only convert the values that Hive actually accesses
+  private final boolean lazyRows;
+  private AvroLazyRow lazyRow;
+  // Decodes the responses in the background. Only used if background threads are enabled.
+  private final PipelinedIterator<ReadRowsResponse, List<GenericRecord>> pipeline;
 
-  public AvroRecordReader(BigQueryInputSplit inputSplit) {
-    ReadRowsHelper readRowsHelper = inputSplit.getReadRowsHelper();
-    responseIterator = readRowsHelper.readRows();
+  public AvroRecordReader(BigQueryInputSplit inputSplit, JobConf jobConf) {
+    progress = new ReadStreamProgress(inputSplit, jobConf);
+    responseIterator = progress;
     recordIterator = Collections.emptyIterator();
     columnNames = inputSplit.getColumnNames();
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(jobConf, null);
+    lazyRows = config.isReadLazyRows();
+    if (lazyRows) {
+      lazyRow = new AvroLazyRow();
+    }
+    int numBackgroundThreads = config.getNumBackgroundThreadsPerStream();
+    if (numBackgroundThreads > 0) {
+      // Each thread decodes one response while the configured number of decoded responses wait
+      pipeline =
+          new PipelinedIterator<>(
+              responseIterator,
+              this::decodeRecords,
+              numBackgroundThreads,
+              numBackgroundThreads + config.getNumPrebufferReadRowsResponses(),
+              records -> {},
+              "bq-avro-decoder");
+    } else {
+      pipeline = null;
+    }
+  }
+
+  /**
+   * Retrieves the Avro schema from the BQ read response. The schema is the same for all the
+   * responses of the stream, so it is only parsed once.
+   */
+  private synchronized Schema getSchema(ReadRowsResponse response) {
+    if (schema == null) {
+      schema = parser.parse(response.getAvroSchema().getSchema());
+      createColumnIndices(schema);
+    }
+    return schema;
+  }
+
+  /** Eagerly decodes all the records contained in the given response. */
+  private List<GenericRecord> decodeRecords(ReadRowsResponse response) {
+    List<GenericRecord> records = new ArrayList<>();
+    new AvroRecordIterator(getSchema(response), response.getAvroRows().getSerializedBinaryRows())
+        .forEachRemaining(records::add);
+    return records;
   }
 
   /**
@@ -59,38 +118,61 @@ public class AvroRecordReader implements RecordReader<NullWritable, ObjectWritab
    * that Hive can handle.
    */
   private Object serializeRow(GenericRecord record) {
-    Schema actualSchema = AvroUtils.getSchemaInfo(record.getSchema()).getActualSchema();
-    List<Schema.Field> fields = actualSchema.getFields();
+    if (lazyRows) {
+      lazyRow.setRecord(record);
+      return lazyRow;
+    }
     Object[] row = new Object[columnNames.size()];
-    for (Schema.Field field : fields) {
-      int colIndex = columnNames.indexOf(field.name());
-      row[colIndex] = AvroSerializer.serialize(record.get(field.name()), field.schema());
+    for (int i = 0; i < fields.length; i++) {
+      Schema.Field field = fields[i];
+      row[columnIndices[i]] = AvroSerializer.serialize(record.get(field.pos()), field.schema());
     }
     return row;
   }
 
+  private void createColumnIndices(Schema schema) {
+    Schema actualSchema = AvroUtils.getSchemaInfo(schema).getActualSchema();
+    fields = actualSchema.getFields().toArray(new Schema.Field[0]);
+    columnIndices = new int[fields.length];
+    fieldIndices = new int[columnNames.size()];
+    Arrays.fill(fieldIndices, -1);
+    for (int i = 0; i < fields.length; i++) {
+      columnIndices[i] = columnNames.indexOf(fields[i].name());
+      if (columnIndices[i] == -1) {
+        throw new RuntimeException(
+            "Column `" + fields[i].name() + "` from the read stream is not in the table");
+      }
+      fieldIndices[columnIndices[i]] = i;
+    }
+  }
+
   @Override
   public float getProgress() {
-    // TODO
-    return -1;
+    return progress.getProgress();
   }
 
   @Override
   public boolean next(NullWritable nullWritable, ObjectWritable objectWritable) {
-    if (responseIterator.hasNext() && !recordIterator.hasNext()) {
-      ReadRowsResponse response = responseIterator.next();
-      if (schema == null) {
-        schema = parser.parse(response.getAvroSchema().getSchema());
+    while (!recordIterator.hasNext()) {
+      if (pipeline != null) {
+        if (!pipeline.hasNext()) {
+          return false;
+        }
+        recordIterator = pipeline.next().iterator();
+      } else {
+        if (!responseIterator.hasNext()) {
+          return false;
+        }
+        ReadRowsResponse response = responseIterator.next();
+        recordIterator =
+            new AvroRecordIterator(
+                getSchema(response), response.getAvroRows().getSerializedBinaryRows());
       }
-      recordIterator =
-          new AvroRecordIterator(schema, response.getAvroRows().getSerializedBinaryRows());
     }
-    if (recordIterator.hasNext()) {
-      GenericRecord avroRecord = recordIterator.next();
-      objectWritable.set(serializeRow(avroRecord));
-      return true;
-    }
-    return false;
+    GenericRecord avroRecord = recordIterator.next();
+    objectWritable.set(serializeRow(avroRecord));
+    pos++;
+    return true;
   }
 
   @Override
@@ -105,12 +187,43 @@ public class AvroRecordReader implements RecordReader<NullWritable, ObjectWritab
 
   @Override
   public long getPos() throws IOException {
-    // TODO
-    return -1;
+    return pos;
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    if (pipeline != null) {
+      // Unblocks the background thread if it is waiting for a response, so it stops right away
+      progress.cancel();
+      pipeline.close();
+    }
+    progress.close();
+  }
+
+  /** Row that converts the values of the current Avro record on demand. */
+  private class AvroLazyRow extends LazyRow {
+
+    private GenericRecord record;
+
+    AvroLazyRow() {
+      super(columnNames.size());
+    }
+
+    void setRecord(GenericRecord record) {
+      this.record = record;
+      reset();
+    }
+
+    @Override
+    protected Object decodeField(int columnIndex) {
+      int fieldIndex = fieldIndices[columnIndex];
+      if (fieldIndex < 0) {
+        return null;
+      }
+      Schema.Field field = fields[fieldIndex];
+      return AvroSerializer.serialize(record.get(field.pos()), field.schema());
+    }
+  }
 
   private static class AvroRecordIterator implements Iterator<GenericRecord> {
 
@@ -16,6 +16,7 @@
 package com.google.cloud.hive.bigquery.connector.input.avro;
 
 import com.google.cloud.hive.bigquery.connector.input.BigQueryInputSplit;
+import com.google.cloud.hive.bigquery.connector.input.RowCountRecordReader;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.mapred.InputSplit;
@@ -41,8 +42,14 @@ public class BigQueryAvroInputFormat
   }
 
   @Override
+  @SuppressWarnings({"rawtypes", "unchecked"})
   public RecordReader<NullWritable, ObjectWritable> getRecordReader(
       InputSplit inputSplit, JobConf jobConf, Reporter reporter) {
-    return new AvroRecordReader((BigQueryInputSplit) inputSplit);
+    ((BigQueryInputSplit) inputSplit).restoreSessionState(jobConf);
+    if (((BigQueryInputSplit) inputSplit).isRowCountOnly()) {
+      return (RecordReader)
+          new RowCountRecordReader((BigQueryInputSplit) inputSplit, jobConf, false);
+    }
+    return new AvroRecordReader((BigQueryInputSplit) inputSplit, jobConf);
   }
 }
@@ -18,16 +18,18 @@ package com.google.cloud.hive.bigquery.connector.output.direct;
 import com.google.cloud.bigquery.Schema;
 import com.google.cloud.bigquery.connector.common.BigQueryClient;
 import com.google.cloud.bigquery.connector.common.BigQueryClientFactory;
-import com.google.cloud.bigquery.connector.common.BigQueryClientModule;
 import com.google.cloud.hive.bigquery.connector.Constants;
 import com.google.cloud.hive.bigquery.connector.JobInfo;
-import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConnectorModule;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
 import com.google.cloud.hive.bigquery.connector.utils.FileSystemUtils;
-import com.google.inject.Guice;
+import com.google.cloud.hive.bigquery.connector.utils.HiveUtils;
+import com.google.cloud.hive.bigquery.connector.utils.TableInfoCache;
 import com.google.inject.Injector;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
@@ -60,44 +62,56 @@ public class DirectOutputCommitter {
       String streamName = FileSystemUtils.readFile(conf, path);
       streamNames.add(streamName);
     }
-    Injector injector =
-        Guice.createInjector(
-            new BigQueryClientModule(),
-            new HiveBigQueryConnectorModule(conf, jobInfo.getTableProperties()));
-    BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
-    BigQueryClientFactory bqClientFactory = injector.getInstance(BigQueryClientFactory.class);
+    Map<String, String> tableParameters = HiveUtils.toMap(jobInfo.getTableProperties());
+    try (BigQueryClientRegistry.Lease lease =
+        BigQueryClientRegistry.acquire(conf, tableParameters)) {
+      Injector injector = lease.getInjector();
+      BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
+      BigQueryClientFactory bqClientFactory = injector.getInstance(BigQueryClientFactory.class);
+      HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, tableParameters);
 
-    // Retrieve the BigQuery schema
-    Schema bigQuerySchema = bqClient.getTable(jobInfo.getTableId()).getDefinition().getSchema();
+      // Retrieve the BigQuery schema
+      Schema bigQuerySchema =
+          TableInfoCache.getTable(bqClient, config, jobInfo.getTableId())
+              .getDefinition()
+              .getSchema();
 
-    // Finally, make the new data available in the destination table by committing the streams
-    DirectWriterContext writerContext =
-        new DirectWriterContext(
-            bqClient,
-            bqClientFactory,
-            jobInfo.getTableId(),
-            jobInfo.getFinalTableId(),
-            bigQuerySchema);
-    writerContext.commit(streamNames);
+      // Finally, make the new data available in the destination table by committing the streams
+      DirectWriterContext writerContext =
+          new DirectWriterContext(
+              bqClient,
+              bqClientFactory,
+              jobInfo.getTableId(),
+              jobInfo.getFinalTableId(),
+              bigQuerySchema,
+              config);
+      writerContext.commit(streamNames);
+    }
   }
 
   public static void abortJob(Configuration conf, JobInfo jobInfo) {
-    Injector injector =
-        Guice.createInjector(
-            new BigQueryClientModule(),
-            new HiveBigQueryConnectorModule(conf, jobInfo.getTableProperties()));
-    BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
-    BigQueryClientFactory bqClientFactory = injector.getInstance(BigQueryClientFactory.class);
+    Map<String, String> tableParameters = HiveUtils.toMap(jobInfo.getTableProperties());
+    try (BigQueryClientRegistry.Lease lease =
+        BigQueryClientRegistry.acquire(conf, tableParameters)) {
+      Injector injector = lease.getInjector();
+      BigQueryClient bqClient = injector.getInstance(BigQueryClient.class);
+      BigQueryClientFactory bqClientFactory = injector.getInstance(BigQueryClientFactory.class);
+      HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, tableParameters);
 
-    // Retrieve the BigQuery schema
-    Schema bigQuerySchema = bqClient.getTable(jobInfo.getTableId()).getDefinition().getSchema();
-    DirectWriterContext writerContext =
-        new DirectWriterContext(
-            bqClient,
-            bqClientFactory,
-            jobInfo.getTableId(),
-            jobInfo.getFinalTableId(),
-            bigQuerySchema);
-    writerContext.abort();
+      // Retrieve the BigQuery schema
+      Schema bigQuerySchema =
+          TableInfoCache.getTable(bqClient, config, jobInfo.getTableId())
+              .getDefinition()
+              .getSchema();
+      DirectWriterContext writerContext =
+          new DirectWriterContext(
+              bqClient,
+              bqClientFactory,
+              jobInfo.getTableId(),
+              jobInfo.getFinalTableId(),
+              bigQuerySchema,
+              config);
+      writerContext.abort();
+    }
   }
 }
@@ -49,6 +49,8 @@ public class DirectRecordWriter
   TaskAttemptID taskAttemptID;
   BigQueryDirectDataWriterHelper streamWriter;
   StructObjectInspector rowObjectInspector;
+  // Only set if the table declares partition pseudo-columns, which aren't written
+  StructObjectInspector writtenRowObjectInspector;
   Descriptors.Descriptor descriptor;
 
   public DirectRecordWriter(JobConf jobConf, JobInfo jobInfo) {
@@ -58,8 +60,14 @@ public class DirectRecordWriter
         DirectUtils.createStreamWriter(
             jobConf, jobInfo.getTableId(), jobInfo.getTableProperties(), jobInfo.getProtoSchema());
     this.rowObjectInspector = BigQuerySerDe.getRowObjectInspector(jobInfo.getTableProperties());
+    StructObjectInspector writtenRowObjectInspector =
+        DirectUtils.getWrittenRowObjectInspector(rowObjectInspector);
+    if (writtenRowObjectInspector.getAllStructFieldRefs().size()
+        < rowObjectInspector.getAllStructFieldRefs().size()) {
+      this.writtenRowObjectInspector = writtenRowObjectInspector;
+    }
     try {
-      descriptor = ProtoSchemaConverter.toDescriptor(this.rowObjectInspector);
+      descriptor = ProtoSchemaConverter.toDescriptor(writtenRowObjectInspector);
     } catch (Descriptors.DescriptorValidationException e) {
       throw new RuntimeException(e);
     }
@@ -74,8 +82,16 @@ public class DirectRecordWriter
   @Override
   public void write(Writable writable) throws IOException {
     Object object = ((ObjectWritable) writable).get();
-    DynamicMessage message =
-        ProtoDeserializer.buildSingleRowMessage(rowObjectInspector, descriptor, object);
+    DynamicMessage message;
+    if (writtenRowObjectInspector == null) {
+      message = ProtoDeserializer.buildSingleRowMessage(rowObjectInspector, descriptor, object);
+    } else {
+      message =
+          ProtoDeserializer.buildSingleRowMessage(
+              writtenRowObjectInspector,
+              descriptor,
+              DirectUtils.getWrittenValues(rowObjectInspector, object));
+    }
     streamWriter.addRow(message.toByteString());
   }
 
@@ -18,19 +18,25 @@ package com.google.cloud.hive.bigquery.connector.output.direct;
 import com.google.api.gax.rpc.HeaderProvider;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.connector.common.BigQueryClientFactory;
-import com.google.cloud.bigquery.connector.common.BigQueryClientModule;
 import com.google.cloud.bigquery.connector.common.BigQueryCredentialsSupplier;
 import com.google.cloud.bigquery.connector.common.BigQueryDirectDataWriterHelper;
 import com.google.cloud.bigquery.storage.v1.ProtoSchema;
 import com.google.cloud.hive.bigquery.connector.Constants;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry;
 import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
-import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConnectorModule;
 import com.google.cloud.hive.bigquery.connector.utils.FileSystemUtils;
-import com.google.inject.Guice;
+import com.google.cloud.hive.bigquery.connector.utils.HiveUtils;
 import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.TaskAttemptID;
 
@@ -58,6 +64,48 @@ public class DirectUtils {
             Constants.STREAM_FILE_EXTENSION));
   }
 
+  /**
+   * Returns the inspector of the rows that are written to BigQuery, i.e. of all the table's columns
+   * except the partition pseudo-columns, which BigQuery sets itself at ingestion time.
+   */
+  public static StructObjectInspector getWrittenRowObjectInspector(
+      StructObjectInspector rowObjectInspector) {
+    List<String> fieldNames = new ArrayList<>();
+    List<ObjectInspector> fieldObjectInspectors = new ArrayList<>();
+    for (StructField field : rowObjectInspector.getAllStructFieldRefs()) {
+      if (!Constants.PARTITION_PSEUDO_COLUMNS.contains(field.getFieldName())) {
+        fieldNames.add(field.getFieldName());
+        fieldObjectInspectors.add(field.getFieldObjectInspector());
+      }
+    }
+    return ObjectInspectorFactory.getStandardStructObjectInspector(
+        fieldNames, fieldObjectInspectors);
+  }
+
+  /**
+   * Returns the values of the given row that are written to BigQuery, i.e. all the values except
+   * those of the partition pseudo-columns, which must be null.
+   */
+  public static List<Object> getWrittenValues(
+      StructObjectInspector rowObjectInspector, Object row) {
+    List<? extends StructField> fields = rowObjectInspector.getAllStructFieldRefs();
+    List<Object> values = rowObjectInspector.getStructFieldsDataAsList(row);
+    List<Object> writtenValues = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++) {
+      String fieldName = fields.get(i).getFieldName();
+      if (!Constants.PARTITION_PSEUDO_COLUMNS.contains(fieldName)) {
+        writtenValues.add(values.get(i));
+      } else if (values.get(i) != null) {
+        throw new RuntimeException(
+            "The "
+                + fieldName
+                + " pseudo-column can't be written since BigQuery sets it at ingestion time."
+                + " Leave it out of the INSERT statement, or set it to NULL.");
+      }
+    }
+    return writtenValues;
+  }
+
   /**
    * Instantiates a BigQueryDirectDataWriterHelper object from the bigquery-connector-common
    * library. That helper is responsible for handling all the interactions with the BQ Storage Write
@@ -65,13 +113,16 @@ public class DirectUtils {
    */
   public static BigQueryDirectDataWriterHelper createStreamWriter(
       JobConf jobConf, TableId tableId, Properties tableProperties, ProtoSchema schema) {
-    Injector injector =
-        Guice.createInjector(
-            new BigQueryClientModule(), new HiveBigQueryConnectorModule(jobConf, tableProperties));
-    HeaderProvider headerProvider = injector.getInstance(HeaderProvider.class);
-    BigQueryCredentialsSupplier credentialsSupplier =
-        injector.getInstance(BigQueryCredentialsSupplier.class);
-    HiveBigQueryConfig opts = injector.getInstance(HiveBigQueryConfig.class);
+    Map<String, String> tableParameters = HiveUtils.toMap(tableProperties);
+    HeaderProvider headerProvider;
+    BigQueryCredentialsSupplier credentialsSupplier;
+    try (BigQueryClientRegistry.Lease lease =
+        BigQueryClientRegistry.acquire(jobConf, tableParameters)) {
+      Injector injector = lease.getInjector();
+      headerProvider = injector.getInstance(HeaderProvider.class);
+      credentialsSupplier = injector.getInstance(BigQueryCredentialsSupplier.class);
+    }
+    HiveBigQueryConfig opts = HiveBigQueryConfig.from(jobConf, tableParameters);
     String tablePath =
         String.format(
             "projects/%s/datasets/%s/tables/%s",
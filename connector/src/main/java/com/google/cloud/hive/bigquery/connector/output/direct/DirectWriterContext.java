@@ -26,6 +26,8 @@ import com.google.cloud.bigquery.connector.common.BigQueryUtil;
 import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsRequest;
 import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsResponse;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
+import com.google.cloud.hive.bigquery.connector.utils.TableInfoCache;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +40,7 @@ public class DirectWriterContext {
   private final BigQueryClient bigQueryClient;
   private final TableId tableIdToWrite;
   private final TableId destinationTableId;
+  private final HiveBigQueryConfig config;
 
   private final String tablePathForBigQueryStorage;
   private boolean deleteTableOnAbort;
@@ -49,9 +52,11 @@ public class DirectWriterContext {
       BigQueryClientFactory bigQueryWriteClientFactory,
       TableId tableId,
       TableId destinationTableId,
-      Schema schema)
+      Schema schema,
+      HiveBigQueryConfig config)
       throws IllegalArgumentException {
     this.bigQueryClient = bigQueryClient;
+    this.config = config;
     this.tableIdToWrite = getOrCreateTable(tableId, schema);
     this.destinationTableId = destinationTableId;
     this.tablePathForBigQueryStorage =
@@ -70,8 +75,8 @@ public class DirectWriterContext {
    */
   private TableId getOrCreateTable(TableId tableId, com.google.cloud.bigquery.Schema bigQuerySchema)
       throws IllegalArgumentException {
-    if (bigQueryClient.tableExists(tableId)) {
-      TableInfo destinationTable = bigQueryClient.getTable(tableId);
+    TableInfo destinationTable = TableInfoCache.getTable(bigQueryClient, config, tableId);
+    if (destinationTable != null) {
       com.google.cloud.bigquery.Schema tableSchema = destinationTable.getDefinition().getSchema();
       Preconditions.checkArgument(
           BigQueryUtil.schemaEquals(tableSchema, bigQuerySchema, /* regardFieldOrder */ false),
@@ -81,6 +86,7 @@ public class DirectWriterContext {
       return destinationTable.getTableId();
     } else {
       deleteTableOnAbort = true;
+      TableInfoCache.invalidate(tableId);
       return bigQueryClient.createTable(tableId, bigQuerySchema).getTableId();
     }
   }
@@ -102,6 +108,7 @@ public class DirectWriterContext {
     LOG.info(
         "BigQuery writer has committed at time: {}",
         batchCommitWriteStreamsResponse.getCommitTime());
+    TableInfoCache.invalidate(tableIdToWrite);
 
     // Special case for "INSERT OVERWRITE" statements: Overwrite the final
     // destination table with the contents of the temporary table.
@@ -109,6 +116,8 @@ public class DirectWriterContext {
       Job overwriteJob =
           bigQueryClient.overwriteDestinationWithTemporary(tableIdToWrite, destinationTableId);
       BigQueryClient.waitForJob(overwriteJob);
+      TableInfoCache.invalidate(destinationTableId);
+      TableInfoCache.invalidate(tableIdToWrite);
       Preconditions.checkState(
           bigQueryClient.deleteTable(tableIdToWrite),
           new BigQueryConnectorException(
@@ -119,6 +128,7 @@ public class DirectWriterContext {
   public void abort() {
     // Deletes the preliminary table we wrote to (if it exists):
     if (deleteTableOnAbort) {
+      TableInfoCache.invalidate(tableIdToWrite);
       bigQueryClient.deleteTable(tableIdToWrite);
     }
   }
@@ -15,7 +15,10 @@
  */
 package com.google.cloud.hive.bigquery.connector.utils;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.mapred.JobConf;
@@ -37,6 +40,15 @@ public class HiveUtils {
         "Hive query id is null");
   }
 
+  /** Converts the given table properties into a map of table parameters. */
+  public static Map<String, String> toMap(Properties tableProperties) {
+    Map<String, String> tableParameters = new HashMap<>();
+    for (String key : tableProperties.stringPropertyNames()) {
+      tableParameters.put(key, tableProperties.getProperty(key));
+    }
+    return tableParameters;
+  }
+
   public static TaskAttemptID taskAttemptIDWrapper(JobConf jobConf) {
     return new TaskAttemptIDWrapper(
         TaskAttemptID.forName(jobConf.get("mapred.task.id")), jobConf.get("hive.tez.vertex.index"));
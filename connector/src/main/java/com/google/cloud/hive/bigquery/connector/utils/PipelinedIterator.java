@@ -0,0 +1,251 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import repackaged.by.hivebqconnector.com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Iterator that transforms the elements of a source iterator in the background while preserving
+ * their order. A dedicated thread pulls elements from the source (e.g. BigQuery read responses,
+ * which involves waiting on the network) and hands them to a pool of threads that transform them
+ * (e.g. decode them). Results are handed over to the consumer through a bounded queue, which limits
+ * the number of elements held in memory at any given time.
+ */
+public class PipelinedIterator<I, O> implements Iterator<O>, AutoCloseable {
+
+  // How long to wait for the producer, which may be blocked on the source, when closing
+  private static final long CLOSE_TIMEOUT_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  // How often the producer checks whether the iterator was closed while the queue is full
+  private static final long ENQUEUE_TIMEOUT_IN_MILLIS = 100;
+
+  private final Future<O> endOfStream = CompletableFuture.completedFuture(null);
+  private final BlockingQueue<Future<O>> queue;
+  private final ExecutorService transformPool;
+  private final Thread producer;
+  private final Consumer<O> discard;
+  private final long closeTimeoutMillis;
+  private volatile boolean closed = false;
+  private Future<O> next;
+  // The queue is drained by whichever of close() and the producer finishes last, so that nothing
+  // can be queued after the drain. Both flags are guarded by the lock.
+  private final Object drainLock = new Object();
+  private boolean producerFinished = false;
+  private boolean closeFinished = false;
+
+  /**
+   * @param source Iterator that provides the elements to transform
+   * @param transform Function applied to each element in the background
+   * @param numThreads Number of threads used to apply the transform function
+   * @param capacity Maximum number of elements being transformed or waiting to be consumed
+   * @param discard Called to release the transformed elements that are never consumed
+   * @param name Name used for the background threads
+   */
+  public PipelinedIterator(
+      Iterator<I> source,
+      Function<I, O> transform,
+      int numThreads,
+      int capacity,
+      Consumer<O> discard,
+      String name) {
+    this(source, transform, numThreads, capacity, discard, name, CLOSE_TIMEOUT_IN_MILLIS);
+  }
+
+  @VisibleForTesting
+  PipelinedIterator(
+      Iterator<I> source,
+      Function<I, O> transform,
+      int numThreads,
+      int capacity,
+      Consumer<O> discard,
+      String name,
+      long closeTimeoutMillis) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.discard = discard;
+    this.closeTimeoutMillis = closeTimeoutMillis;
+    this.transformPool =
+        Executors.newFixedThreadPool(
+            numThreads,
+            new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+    this.producer =
+        new Thread(
+            () -> {
+              try {
+                produce(source, transform);
+              } finally {
+                synchronized (drainLock) {
+                  producerFinished = true;
+                  if (!closeFinished) {
+                    return;
+                  }
+                }
+                // close() gave up waiting for this thread, so the queue is drained here instead
+                drain();
+              }
+            },
+            name + "-producer");
+    this.producer.setDaemon(true);
+    this.producer.start();
+  }
+
+  private void produce(Iterator<I> source, Function<I, O> transform) {
+    Future<O> future = null;
+    try {
+      while (!closed && source.hasNext()) {
+        I element = source.next();
+        future = transformPool.submit(() -> transform.apply(element));
+        if (!enqueue(future)) {
+          // The iterator was closed while the element was read or transformed
+          release(future);
+          return;
+        }
+        future = null;
+      }
+      enqueue(endOfStream);
+    } catch (InterruptedException e) {
+      if (future != null) {
+        release(future);
+      }
+      Thread.currentThread().interrupt();
+    } catch (Throwable t) {
+      if (closed) {
+        // Nobody is going to consume the failure, e.g. the source was cancelled
+        return;
+      }
+      CompletableFuture<O> failure = new CompletableFuture<>();
+      failure.completeExceptionally(t);
+      try {
+        enqueue(failure);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Waits for room in the queue and adds the given element to it, unless the iterator is closed in
+   * the meantime.
+   *
+   * @return whether the element was queued
+   */
+  private boolean enqueue(Future<O> future) throws InterruptedException {
+    while (!closed) {
+      if (queue.offer(future, ENQUEUE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for the next element", e);
+      }
+    }
+    return next != endOfStream;
+  }
+
+  @Override
+  public O next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Future<O> future = next;
+    next = null;
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the next element", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Stops the background threads and releases the elements that were not consumed. Elements that
+   * are still being transformed are waited for, so that everything they hold is released by the
+   * time this method returns. If the producer doesn't stop in time, e.g. because it is blocked on
+   * the source, it releases the remaining elements itself when it stops.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    producer.interrupt();
+    // Lets the transforms already submitted run to completion, but rejects any new ones
+    transformPool.shutdown();
+    try {
+      producer.join(closeTimeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (next != null) {
+      release(next);
+      next = null;
+    }
+    synchronized (drainLock) {
+      closeFinished = true;
+      if (!producerFinished) {
+        return;
+      }
+    }
+    drain();
+  }
+
+  /** Releases the queued elements. Must only be called once the producer has stopped. */
+  private void drain() {
+    Future<O> future;
+    while ((future = queue.poll()) != null) {
+      release(future);
+    }
+  }
+
+  private void release(Future<O> future) {
+    if (future == endOfStream) {
+      return;
+    }
+    try {
+      discard.accept(Uninterruptibles.getUninterruptibly(future));
+    } catch (ExecutionException e) {
+      // The element was never produced, so there is nothing to release
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils;
+
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.connector.common.BigQueryClient;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.com.google.common.cache.Cache;
+import repackaged.by.hivebqconnector.com.google.common.cache.CacheBuilder;
+
+/**
+ * Process-wide cache of BigQuery table metadata. A single query looks up the same table several
+ * times (e.g. in the meta hook and then in the output committer), so caching the metadata avoids
+ * repeating those RPCs. The cache is disabled unless "bq.table.info.cache.expiration.minutes" is
+ * set. Entries are only shared by configs that connect to BigQuery the same way, e.g. with the same
+ * credentials, and are invalidated whenever the connector itself modifies a table.
+ */
+public class TableInfoCache {
+
+  private static final long MAX_CACHED_TABLES = 1000;
+
+  // Keyed by the config's connection key and the table's id
+  private static final Cache<List<Object>, CachedTable> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TABLES).build();
+
+  private TableInfoCache() {}
+
+  /**
+   * Returns the given table's metadata, or null if the table doesn't exist. The metadata is fetched
+   * from BigQuery if it isn't cached or is older than the config's table info cache expiration
+   * time.
+   */
+  public static TableInfo getTable(
+      BigQueryClient bqClient, HiveBigQueryConfig config, TableId tableId) {
+    return getTable(
+        bqClient::getTable,
+        config.getConnectionKey(),
+        tableId,
+        config.getTableInfoCacheExpirationTimeInMinutes(),
+        System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  static TableInfo getTable(
+      Function<TableId, TableInfo> fetcher,
+      List<Object> connectionKey,
+      TableId tableId,
+      int expirationTimeInMinutes,
+      long nowMillis) {
+    List<Object> key = Arrays.asList(connectionKey, tableId);
+    CachedTable cachedTable = cache.getIfPresent(key);
+    if (cachedTable != null
+        && nowMillis - cachedTable.fetchTimeMillis
+            < TimeUnit.MINUTES.toMillis(expirationTimeInMinutes)) {
+      return cachedTable.tableInfo;
+    }
+    TableInfo tableInfo = fetcher.apply(tableId);
+    if (tableInfo == null || expirationTimeInMinutes == 0) {
+      cache.invalidate(key);
+    } else {
+      cache.put(key, new CachedTable(tableInfo, nowMillis));
+    }
+    return tableInfo;
+  }
+
+  /**
+   * Discards the given table's metadata for all connections, e.g. after the table was created,
+   * changed or deleted.
+   */
+  public static void invalidate(TableId tableId) {
+    cache.asMap().keySet().removeIf(key -> tableId.equals(key.get(1)));
+  }
+
+  private static class CachedTable {
+    final TableInfo tableInfo;
+    final long fetchTimeMillis;
+
+    CachedTable(TableInfo tableInfo, long fetchTimeMillis) {
+      this.tableInfo = tableInfo;
+      this.fetchTimeMillis = fetchTimeMillis;
+    }
+  }
+}
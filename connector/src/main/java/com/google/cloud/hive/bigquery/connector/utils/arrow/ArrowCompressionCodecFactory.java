@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import repackaged.by.hivebqconnector.com.google.common.annotations.VisibleForTesting;
+import repackaged.by.hivebqconnector.io.airlift.compress.MalformedInputException;
+import repackaged.by.hivebqconnector.io.airlift.compress.lz4.Lz4Decompressor;
+import repackaged.by.hivebqconnector.io.airlift.compress.zstd.ZstdDecompressor;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.ArrowBuf;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.AbstractCompressionCodec;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.CompressionCodec;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.CompressionUtil;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.NoCompressionCodec;
+
+/**
+ * Default factory for the codecs used to decompress the Arrow record batches returned by the
+ * BigQuery Storage Read API. Only decompression is supported. Both LZ4 and ZSTD data is decoded by
+ * aircompressor, a pure-Java compression library, directly from and into the Arrow buffers. This
+ * class only parses the LZ4 frame format, which aircompressor doesn't support.
+ *
+ * <p>A different implementation of {@link CompressionCodec.Factory} can be provided with the
+ * "bq.read.arrow.compression.codec.factory" option.
+ */
+public class ArrowCompressionCodecFactory implements CompressionCodec.Factory {
+
+  private static final int LZ4_FRAME_MAGIC_NUMBER = 0x184D2204;
+  // Maximum distance at which a match may point back to previously decoded data
+  private static final int LZ4_MAX_MATCH_OFFSET = 64 * 1024;
+
+  @Override
+  public CompressionCodec createCodec(CompressionUtil.CodecType codecType) {
+    switch (codecType) {
+      case NO_COMPRESSION:
+        return NoCompressionCodec.INSTANCE;
+      case LZ4_FRAME:
+        return new DecompressionCodec(codecType) {
+          @Override
+          void decompress(ByteBuffer input, ByteBuffer output) {
+            decompressLz4Frame(input, output);
+          }
+        };
+      case ZSTD:
+        return new DecompressionCodec(codecType) {
+          @Override
+          void decompress(ByteBuffer input, ByteBuffer output) {
+            new ZstdDecompressor().decompress(input, output);
+          }
+        };
+      default:
+        throw new IllegalArgumentException("Unsupported Arrow compression codec: " + codecType);
+    }
+  }
+
+  private abstract static class DecompressionCodec extends AbstractCompressionCodec {
+
+    private final CompressionUtil.CodecType codecType;
+
+    DecompressionCodec(CompressionUtil.CodecType codecType) {
+      this.codecType = codecType;
+    }
+
+    abstract void decompress(ByteBuffer input, ByteBuffer output);
+
+    @Override
+    protected ArrowBuf doCompress(BufferAllocator allocator, ArrowBuf uncompressedBuffer) {
+      throw new UnsupportedOperationException("Arrow buffers can only be decompressed");
+    }
+
+    @Override
+    protected ArrowBuf doDecompress(BufferAllocator allocator, ArrowBuf compressedBuffer) {
+      long decompressedLength = readUncompressedLength(compressedBuffer);
+      ArrowBuf decompressedBuffer = allocator.buffer(decompressedLength);
+      try {
+        decompress(
+            compressedBuffer.nioBuffer(
+                CompressionUtil.SIZE_OF_UNCOMPRESSED_LENGTH,
+                (int)
+                    (compressedBuffer.writerIndex() - CompressionUtil.SIZE_OF_UNCOMPRESSED_LENGTH)),
+            decompressedBuffer.nioBuffer(0, (int) decompressedLength));
+      } catch (RuntimeException e) {
+        decompressedBuffer.close();
+        throw e;
+      }
+      return decompressedBuffer;
+    }
+
+    @Override
+    public CompressionUtil.CodecType getCodecType() {
+      return codecType;
+    }
+  }
+
+  /**
+   * Decodes the LZ4 frames remaining in the given input into the given output, whose remaining
+   * space must have the exact size of the decompressed data. Checksums are not verified.
+   */
+  @VisibleForTesting
+  static void decompressLz4Frame(ByteBuffer input, ByteBuffer output) {
+    ByteBuffer frame = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int outputStart = output.position();
+    Lz4Decompressor decompressor = new Lz4Decompressor();
+    try {
+      while (frame.hasRemaining()) {
+        if (frame.getInt() != LZ4_FRAME_MAGIC_NUMBER) {
+          throw new IllegalArgumentException("Invalid LZ4 frame header");
+        }
+        int flags = frame.get();
+        boolean hasIndependentBlocks = (flags & 0x20) != 0;
+        boolean hasBlockChecksum = (flags & 0x10) != 0;
+        boolean hasContentSize = (flags & 0x08) != 0;
+        boolean hasContentChecksum = (flags & 0x04) != 0;
+        boolean hasDictionaryId = (flags & 0x01) != 0;
+        // Skip the block descriptor, the optional fields, and the header checksum
+        skip(frame, 1 + (hasContentSize ? 8 : 0) + (hasDictionaryId ? 4 : 0) + 1);
+        int frameStart = output.position();
+        while (true) {
+          int blockSize = frame.getInt();
+          if (blockSize == 0) {
+            // End of the frame
+            break;
+          }
+          boolean isCompressed = (blockSize & 0x80000000) == 0;
+          blockSize &= 0x7FFFFFFF;
+          ByteBuffer block = frame.duplicate();
+          block.limit(block.position() + blockSize);
+          if (!isCompressed) {
+            output.put(block);
+          } else if (hasIndependentBlocks || output.position() == frameStart) {
+            decompressor.decompress(block, output);
+          } else {
+            int historyLength = Math.min(output.position() - frameStart, LZ4_MAX_MATCH_OFFSET);
+            decompressLinkedLz4Block(decompressor, block, output, historyLength);
+          }
+          skip(frame, blockSize + (hasBlockChecksum ? 4 : 0));
+        }
+        skip(frame, hasContentChecksum ? 4 : 0);
+      }
+    } catch (IndexOutOfBoundsException
+        | BufferUnderflowException
+        | BufferOverflowException
+        | MalformedInputException e) {
+      throw new IllegalArgumentException("Malformed LZ4 frame", e);
+    }
+    if (output.hasRemaining()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unexpected LZ4 decompressed size: expected %d but got %d",
+              output.limit() - outputStart, output.position() - outputStart));
+    }
+  }
+
+  /**
+   * Decodes an LZ4 block whose matches may point to the data decoded by the previous blocks of the
+   * same frame. The decompressor only accepts matches within its own output, so the block's first
+   * sequence is prefixed with the given number of previously decoded bytes as extra literals, and
+   * the block is decoded over those bytes, which are rewritten with their own values.
+   */
+  private static void decompressLinkedLz4Block(
+      Lz4Decompressor decompressor, ByteBuffer block, ByteBuffer output, int historyLength) {
+    int pos = block.position();
+    int token = block.get(pos++) & 0xFF;
+    int literalLength = token >>> 4;
+    if (literalLength == 15) {
+      int b;
+      do {
+        b = block.get(pos++) & 0xFF;
+        literalLength += b;
+      } while (b == 255);
+    }
+    int prefixedLiteralLength = historyLength + literalLength;
+    ByteBuffer prefixedBlock =
+        ByteBuffer.allocate(
+            1 + prefixedLiteralLength / 255 + 1 + historyLength + block.limit() - pos);
+    prefixedBlock.put((byte) ((Math.min(prefixedLiteralLength, 15) << 4) | (token & 0x0F)));
+    if (prefixedLiteralLength >= 15) {
+      int remaining = prefixedLiteralLength - 15;
+      for (; remaining >= 255; remaining -= 255) {
+        prefixedBlock.put((byte) 255);
+      }
+      prefixedBlock.put((byte) remaining);
+    }
+    ByteBuffer history = output.duplicate();
+    history.position(output.position() - historyLength);
+    history.limit(output.position());
+    prefixedBlock.put(history);
+    ByteBuffer rest = block.duplicate();
+    rest.position(pos);
+    prefixedBlock.put(rest);
+    prefixedBlock.flip();
+    output.position(output.position() - historyLength);
+    decompressor.decompress(prefixedBlock, output);
+  }
+
+  private static void skip(ByteBuffer buffer, int length) {
+    buffer.position(buffer.position() + length);
+  }
+}
@@ -15,88 +15,330 @@
  */
 package com.google.cloud.hive.bigquery.connector.utils.arrow;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
-import org.apache.hadoop.hive.common.type.Date;
 import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.serde2.io.DateWritableV2;
 import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
 import org.apache.hadoop.hive.serde2.io.TimestampWritableV2;
 import org.apache.hadoop.io.*;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.ArrowBuf;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.*;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.ListVector;
 import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.StructVector;
 
 public class ArrowSerializer {
 
-  /** Converts the given Arrow-formatted value to a serialized format that Hive understands. */
-  public static Object serializeVector(ValueVector vector, int rowId) {
-    if (vector.isNull(rowId)) {
-      return null;
-    }
+  /**
+   * Converts the values of a specific Arrow vector to a serialized format that Hive understands.
+   */
+  public interface Converter {
+
+    /**
+     * Converts the vector's value at the given row. If {@code reuse} is a Writable of the
+     * appropriate type, then it is updated in place and returned instead of allocating a new
+     * object.
+     */
+    Object convert(int rowId, Object reuse);
+  }
+
+  /**
+   * Returns a converter dedicated to the given vector. Resolving the vector's type only once,
+   * instead of for every value, keeps the per-row conversion loop cheap.
+   */
+  public static Converter createConverter(ValueVector vector) {
     if (vector instanceof BitVector) {
-      return new BooleanWritable(((BitVector) vector).get(rowId) == 1);
+      return new BooleanConverter((BitVector) vector);
     } else if (vector instanceof BigIntVector) {
-      return new LongWritable(((BigIntVector) vector).get(rowId));
+      return new LongConverter((BigIntVector) vector);
     } else if (vector instanceof Float8Vector) {
-      return new DoubleWritable(((Float8Vector) vector).get(rowId));
+      return new DoubleConverter((Float8Vector) vector);
     } else if (vector instanceof DecimalVector) {
-      DecimalVector v = (DecimalVector) vector;
-      HiveDecimal hiveDecimal = HiveDecimal.create(v.getObject(rowId));
-      HiveDecimal.enforcePrecisionScale(hiveDecimal, v.getPrecision(), v.getScale());
-      return new HiveDecimalWritable(hiveDecimal);
+      return new DecimalConverter((DecimalVector) vector);
     } else if (vector instanceof VarCharVector) {
-      VarCharVector v = (VarCharVector) vector;
-      if (v.isSet(rowId) == 0) {
-        return null;
-      } else {
-        return new Text(v.getObject(rowId).toString());
-      }
+      return new TextConverter((VarCharVector) vector);
     } else if (vector instanceof VarBinaryVector) {
-      return new BytesWritable(((VarBinaryVector) vector).getObject(rowId));
+      return new BytesConverter((VarBinaryVector) vector);
     } else if (vector instanceof DateDayVector) {
-      int intValue = ((DateDayVector) vector).get(rowId);
-      LocalDate localDate = LocalDate.ofEpochDay(intValue);
-      Date date = new Date();
-      date.setDayOfMonth(localDate.getDayOfMonth());
-      date.setMonth(localDate.getMonth().getValue());
-      date.setYear(localDate.getYear());
-      return new DateWritableV2(date);
-    } else if (vector instanceof TimeStampMicroVector) {
-      LocalDateTime localDateTime = ((TimeStampMicroVector) vector).getObject(rowId);
-      TimestampWritableV2 timestamp = new TimestampWritableV2();
-      timestamp.setInternal(localDateTime.toEpochSecond(ZoneOffset.UTC), localDateTime.getNano());
-      return timestamp;
-    } else if (vector instanceof TimeStampMicroTZVector) {
-      long longValue = ((TimeStampMicroTZVector) vector).get(rowId);
-      TimestampWritableV2 timestamp = new TimestampWritableV2();
-      long secondsAsMillis = (longValue / 1_000_000) * 1_000;
-      int nanos = (int) (longValue % 1_000_000) * 1_000;
-      timestamp.setInternal(secondsAsMillis, nanos);
-      return timestamp;
+      return new DateConverter((DateDayVector) vector);
+    } else if (vector instanceof TimeStampMicroVector || vector instanceof TimeStampMicroTZVector) {
+      return new TimestampConverter((TimeStampVector) vector);
     } else if (vector instanceof ListVector) {
-      ListVector listVector = (ListVector) vector;
-      int numItems = listVector.getDataVector().getValueCount();
-      Object[] children = new Object[numItems];
-      for (int i = 0; i < numItems; i++) {
-        children[i] = serializeVector(listVector.getDataVector(), i);
-      }
-      return children;
+      return new ListConverter((ListVector) vector);
     } else if (vector instanceof StructVector) {
-      StructVector structVector = (StructVector) vector;
-      int numItems = structVector.size();
-      List<FieldVector> childrenVectors = structVector.getChildrenFromFields();
-      Object[] children = new Object[numItems];
-      for (int i = 0; i < numItems; i++) {
-        FieldVector childVector = childrenVectors.get(i);
-        children[i] = serializeVector(childVector, 0);
-      }
-      return children;
+      return new StructConverter((StructVector) vector);
     } else {
       throw new UnsupportedOperationException(
           "Unsupported Arrow vector type: " + vector.getClass().getName());
     }
   }
+
+  private static class BooleanConverter implements Converter {
+    private final BitVector vector;
+
+    BooleanConverter(BitVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      BooleanWritable writable =
+          reuse instanceof BooleanWritable ? (BooleanWritable) reuse : new BooleanWritable();
+      writable.set(vector.get(rowId) == 1);
+      return writable;
+    }
+  }
+
+  private static class LongConverter implements Converter {
+    private final BigIntVector vector;
+
+    LongConverter(BigIntVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      LongWritable writable =
+          reuse instanceof LongWritable ? (LongWritable) reuse : new LongWritable();
+      writable.set(vector.get(rowId));
+      return writable;
+    }
+  }
+
+  private static class DoubleConverter implements Converter {
+    private final Float8Vector vector;
+
+    DoubleConverter(Float8Vector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      DoubleWritable writable =
+          reuse instanceof DoubleWritable ? (DoubleWritable) reuse : new DoubleWritable();
+      writable.set(vector.get(rowId));
+      return writable;
+    }
+  }
+
+  private static class DecimalConverter implements Converter {
+    private final DecimalVector vector;
+    private final int scale;
+
+    DecimalConverter(DecimalVector vector) {
+      this.vector = vector;
+      this.scale = vector.getScale();
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      HiveDecimalWritable writable =
+          reuse instanceof HiveDecimalWritable
+              ? (HiveDecimalWritable) reuse
+              : new HiveDecimalWritable();
+      readDecimal(vector, rowId, scale, writable);
+      return writable;
+    }
+  }
+
+  /** Sets the given writable to the decimal vector's value at the given row. */
+  static void readDecimal(
+      DecimalVector vector, int rowId, int scale, HiveDecimalWritable writable) {
+    // Arrow stores decimals as 128-bit little-endian unscaled values. Most values fit
+    // in a long, in which case we can avoid going through a BigDecimal.
+    long index = (long) rowId * DecimalVector.TYPE_WIDTH;
+    long low = vector.getDataBuffer().getLong(index);
+    long high = vector.getDataBuffer().getLong(index + Long.BYTES);
+    if (high == (low >> 63)) {
+      writable.setFromLongAndScale(low, scale);
+    } else {
+      writable.set(HiveDecimal.create(vector.getObject(rowId)));
+    }
+  }
+
+  private static class TextConverter implements Converter {
+    private final VarCharVector vector;
+    private final ArrowBufInputStream input = new ArrowBufInputStream();
+    private final DataInputStream dataInput = new DataInputStream(input);
+
+    TextConverter(VarCharVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isSet(rowId) == 0) {
+        return null;
+      }
+      Text writable = reuse instanceof Text ? (Text) reuse : new Text();
+      // Let the Text copy the bytes straight from the Arrow buffer into its own backing array
+      input.reset(vector.getDataBuffer(), vector.getStartOffset(rowId));
+      try {
+        writable.readWithKnownLength(dataInput, vector.getValueLength(rowId));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return writable;
+    }
+  }
+
+  /** Reads the bytes of an Arrow buffer from a given position, without copying the buffer. */
+  private static class ArrowBufInputStream extends InputStream {
+    private ArrowBuf buffer;
+    private long position;
+
+    void reset(ArrowBuf buffer, long position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    @Override
+    public int read() {
+      return buffer.getByte(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      buffer.getBytes(position, bytes, offset, length);
+      position += length;
+      return length;
+    }
+  }
+
+  private static class BytesConverter implements Converter {
+    private final VarBinaryVector vector;
+
+    BytesConverter(VarBinaryVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      BytesWritable writable =
+          reuse instanceof BytesWritable ? (BytesWritable) reuse : new BytesWritable();
+      int length = vector.getValueLength(rowId);
+      writable.setSize(length);
+      vector.getDataBuffer().getBytes(vector.getStartOffset(rowId), writable.getBytes(), 0, length);
+      return writable;
+    }
+  }
+
+  private static class DateConverter implements Converter {
+    private final DateDayVector vector;
+
+    DateConverter(DateDayVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      DateWritableV2 writable =
+          reuse instanceof DateWritableV2 ? (DateWritableV2) reuse : new DateWritableV2();
+      // Both Arrow and Hive represent dates as the number of days since the epoch
+      writable.set(vector.get(rowId));
+      return writable;
+    }
+  }
+
+  /** Handles both TIMESTAMP (with time zone) and DATETIME (without time zone) values. */
+  private static class TimestampConverter implements Converter {
+    private final TimeStampVector vector;
+
+    TimestampConverter(TimeStampVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      TimestampWritableV2 writable =
+          reuse instanceof TimestampWritableV2
+              ? (TimestampWritableV2) reuse
+              : new TimestampWritableV2();
+      // BigQuery timestamps have a microsecond precision
+      long micros = vector.get(rowId);
+      long seconds = Math.floorDiv(micros, 1_000_000L);
+      int nanos = (int) Math.floorMod(micros, 1_000_000L) * 1_000;
+      writable.setInternal(seconds * 1_000, nanos);
+      return writable;
+    }
+  }
+
+  /**
+   * Converts the slice of the list's data vector that belongs to a given row, as delimited by the
+   * list's offsets.
+   */
+  private static class ListConverter implements Converter {
+    private final ListVector vector;
+    private final Converter elementConverter;
+
+    ListConverter(ListVector vector) {
+      this.vector = vector;
+      this.elementConverter = createConverter(vector.getDataVector());
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      int start = vector.getElementStartIndex(rowId);
+      int end = vector.getElementEndIndex(rowId);
+      Object[] elements = new Object[end - start];
+      for (int i = start; i < end; i++) {
+        elements[i - start] = elementConverter.convert(i, null);
+      }
+      return elements;
+    }
+  }
+
+  /** Converts the value that each of the struct's child vectors holds for a given row. */
+  private static class StructConverter implements Converter {
+    private final StructVector vector;
+    private final Converter[] fieldConverters;
+
+    StructConverter(StructVector vector) {
+      this.vector = vector;
+      List<FieldVector> childrenVectors = vector.getChildrenFromFields();
+      this.fieldConverters = new Converter[childrenVectors.size()];
+      for (int i = 0; i < fieldConverters.length; i++) {
+        fieldConverters[i] = createConverter(childrenVectors.get(i));
+      }
+    }
+
+    @Override
+    public Object convert(int rowId, Object reuse) {
+      if (vector.isNull(rowId)) {
+        return null;
+      }
+      Object[] fields = new Object[fieldConverters.length];
+      for (int i = 0; i < fieldConverters.length; i++) {
+        fields[i] = fieldConverters[i].convert(rowId, null);
+      }
+      return fields;
+    }
+  }
 }
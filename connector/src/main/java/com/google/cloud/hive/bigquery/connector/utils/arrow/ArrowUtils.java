@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+
+/**
+ * Manages the Arrow memory used by the readers of a JVM. All readers share a single root allocator
+ * whose limit is enforced across every reader running concurrently in the process (e.g. in reused
+ * Tez containers or LLAP daemons). Each reader gets its own child allocator, which lets its memory
+ * be released and accounted for separately.
+ */
+public class ArrowUtils {
+
+  private static RootAllocator rootAllocator;
+
+  private static synchronized BufferAllocator getRootAllocator(Configuration conf) {
+    if (rootAllocator == null) {
+      rootAllocator =
+          new RootAllocator(
+              HiveConf.getLongVar(conf, HiveConf.ConfVars.HIVE_ARROW_ROOT_ALLOCATOR_LIMIT));
+    }
+    return rootAllocator;
+  }
+
+  /**
+   * Returns a new child allocator of the process-wide root allocator. The caller is responsible for
+   * closing it.
+   */
+  public static BufferAllocator createChildAllocator(Configuration conf, String name) {
+    BufferAllocator root = getRootAllocator(conf);
+    return root.newChildAllocator(name, 0, root.getLimit());
+  }
+
+  /** Returns the number of bytes currently allocated by all the readers of the process. */
+  public static synchronized long getAllocatedMemory() {
+    return rootAllocator == null ? 0 : rootAllocator.getAllocatedMemory();
+  }
+
+  /** Returns the highest number of bytes ever allocated at once by the readers of the process. */
+  public static synchronized long getPeakMemoryAllocation() {
+    return rootAllocator == null ? 0 : rootAllocator.getPeakMemoryAllocation();
+  }
+}
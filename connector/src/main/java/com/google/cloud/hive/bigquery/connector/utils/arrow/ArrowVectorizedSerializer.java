@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import java.util.List;
+import org.apache.hadoop.hive.ql.exec.vector.*;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.*;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.ListVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.StructVector;
+
+/**
+ * Copies slices of Arrow vectors into Hive's column vectors so that BigQuery data can be consumed
+ * by Hive's vectorized execution engine without materializing individual rows.
+ */
+public class ArrowVectorizedSerializer {
+
+  /**
+   * Copies {@code length} values of the given Arrow vector, starting at {@code offset}, into the
+   * first {@code length} slots of the given Hive column vector.
+   */
+  public static void serializeVector(
+      ValueVector vector, int offset, int length, ColumnVector columnVector) {
+    columnVector.isRepeating = false;
+    columnVector.noNulls = vector.getNullCount() == 0;
+    if (!columnVector.noNulls) {
+      for (int i = 0; i < length; i++) {
+        columnVector.isNull[i] = vector.isNull(offset + i);
+      }
+    }
+    if (vector instanceof BigIntVector) {
+      BigIntVector v = (BigIntVector) vector;
+      long[] values = ((LongColumnVector) columnVector).vector;
+      for (int i = 0; i < length; i++) {
+        if (columnVector.noNulls || !columnVector.isNull[i]) {
+          values[i] = v.get(offset + i);
+        }
+      }
+    } else if (vector instanceof BitVector) {
+      BitVector v = (BitVector) vector;
+      long[] values = ((LongColumnVector) columnVector).vector;
+      for (int i = 0; i < length; i++) {
+        if (columnVector.noNulls || !columnVector.isNull[i]) {
+          values[i] = v.get(offset + i);
+        }
+      }
+    } else if (vector instanceof DateDayVector) {
+      // Hive represents dates in column vectors as the number of days since the epoch,
+      // which is exactly what Arrow uses as well.
+      DateDayVector v = (DateDayVector) vector;
+      long[] values = ((LongColumnVector) columnVector).vector;
+      for (int i = 0; i < length; i++) {
+        if (columnVector.noNulls || !columnVector.isNull[i]) {
+          values[i] = v.get(offset + i);
+        }
+      }
+    } else if (vector instanceof Float8Vector) {
+      Float8Vector v = (Float8Vector) vector;
+      double[] values = ((DoubleColumnVector) columnVector).vector;
+      for (int i = 0; i < length; i++) {
+        if (columnVector.noNulls || !columnVector.isNull[i]) {
+          values[i] = v.get(offset + i);
+        }
+      }
+    } else if (vector instanceof VarCharVector || vector instanceof VarBinaryVector) {
+      serializeVariableWidthVector((BaseVariableWidthVector) vector, offset, length, columnVector);
+    } else if (vector instanceof DecimalVector) {
+      serializeDecimalVector((DecimalVector) vector, offset, length, columnVector);
+    } else if (vector instanceof TimeStampMicroVector || vector instanceof TimeStampMicroTZVector) {
+      serializeTimestampVector((TimeStampVector) vector, offset, length, columnVector);
+    } else if (vector instanceof ListVector) {
+      serializeListVector((ListVector) vector, offset, length, columnVector);
+    } else if (vector instanceof StructVector) {
+      StructVector v = (StructVector) vector;
+      List<FieldVector> childrenVectors = v.getChildrenFromFields();
+      ColumnVector[] fields = ((StructColumnVector) columnVector).fields;
+      for (int i = 0; i < fields.length; i++) {
+        serializeVector(childrenVectors.get(i), offset, length, fields[i]);
+      }
+    } else {
+      throw new UnsupportedOperationException(
+          "Unsupported Arrow vector type: " + vector.getClass().getName());
+    }
+  }
+
+  /**
+   * Copies the whole data range covered by the slice in a single bulk operation, then points each
+   * Hive value to its position in that shared buffer.
+   */
+  private static void serializeVariableWidthVector(
+      BaseVariableWidthVector vector, int offset, int length, ColumnVector columnVector) {
+    BytesColumnVector bytesColumnVector = (BytesColumnVector) columnVector;
+    int firstOffset = vector.getStartOffset(offset);
+    int lastOffset = vector.getStartOffset(offset + length);
+    byte[] data = new byte[lastOffset - firstOffset];
+    vector.getDataBuffer().getBytes(firstOffset, data, 0, data.length);
+    for (int i = 0; i < length; i++) {
+      if (columnVector.noNulls || !columnVector.isNull[i]) {
+        int start = vector.getStartOffset(offset + i);
+        int end = vector.getStartOffset(offset + i + 1);
+        bytesColumnVector.setRef(i, data, start - firstOffset, end - start);
+      }
+    }
+  }
+
+  private static void serializeDecimalVector(
+      DecimalVector vector, int offset, int length, ColumnVector columnVector) {
+    DecimalColumnVector decimalColumnVector = (DecimalColumnVector) columnVector;
+    int scale = vector.getScale();
+    for (int i = 0; i < length; i++) {
+      if (columnVector.noNulls || !columnVector.isNull[i]) {
+        ArrowSerializer.readDecimal(vector, offset + i, scale, decimalColumnVector.vector[i]);
+        decimalColumnVector.vector[i].mutateEnforcePrecisionScale(
+            decimalColumnVector.precision, decimalColumnVector.scale);
+        if (!decimalColumnVector.vector[i].isSet()) {
+          // The value doesn't fit in the column's precision and scale
+          columnVector.noNulls = false;
+          columnVector.isNull[i] = true;
+        }
+      }
+    }
+  }
+
+  private static void serializeTimestampVector(
+      TimeStampVector vector, int offset, int length, ColumnVector columnVector) {
+    TimestampColumnVector timestampColumnVector = (TimestampColumnVector) columnVector;
+    for (int i = 0; i < length; i++) {
+      if (columnVector.noNulls || !columnVector.isNull[i]) {
+        // BigQuery timestamps have a microsecond precision
+        long micros = vector.get(offset + i);
+        long seconds = Math.floorDiv(micros, 1_000_000L);
+        long microsOfSecond = Math.floorMod(micros, 1_000_000L);
+        timestampColumnVector.time[i] = seconds * 1_000 + microsOfSecond / 1_000;
+        timestampColumnVector.nanos[i] = (int) (microsOfSecond * 1_000);
+      }
+    }
+  }
+
+  private static void serializeListVector(
+      ListVector vector, int offset, int length, ColumnVector columnVector) {
+    ListColumnVector listColumnVector = (ListColumnVector) columnVector;
+    int firstElement = vector.getElementStartIndex(offset);
+    int lastElement = vector.getElementStartIndex(offset + length);
+    for (int i = 0; i < length; i++) {
+      int start = vector.getElementStartIndex(offset + i);
+      listColumnVector.offsets[i] = start - firstElement;
+      listColumnVector.lengths[i] = vector.getElementEndIndex(offset + i) - start;
+    }
+    int childCount = lastElement - firstElement;
+    listColumnVector.childCount = childCount;
+    listColumnVector.child.ensureSize(childCount, false);
+    listColumnVector.child.reset();
+    serializeVector(vector.getDataVector(), firstElement, childCount, listColumnVector.child);
+  }
+}
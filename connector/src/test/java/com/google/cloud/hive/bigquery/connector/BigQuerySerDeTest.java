@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.hive.bigquery.connector.input.LazyRow;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.Test;
+
+public class BigQuerySerDeTest {
+
+  /** Lazy row over the given values that records which columns get decoded. */
+  private static class RecordingLazyRow extends LazyRow {
+
+    private Object[] values;
+    final List<Integer> decodedColumns = new ArrayList<>();
+
+    RecordingLazyRow(Object... values) {
+      super(values.length);
+      this.values = values;
+    }
+
+    void moveTo(Object... values) {
+      this.values = values;
+      reset();
+    }
+
+    @Override
+    protected Object decodeField(int columnIndex) {
+      decodedColumns.add(columnIndex);
+      return values[columnIndex];
+    }
+  }
+
+  private static StructObjectInspector createRowObjectInspector() throws Exception {
+    Properties tableProperties = new Properties();
+    tableProperties.setProperty(serdeConstants.LIST_COLUMNS, "name,number,other");
+    tableProperties.setProperty(serdeConstants.LIST_COLUMN_TYPES, "string:bigint:string");
+    BigQuerySerDe serDe = new BigQuerySerDe();
+    serDe.initialize(null, tableProperties);
+    return (StructObjectInspector) serDe.getObjectInspector();
+  }
+
+  @Test
+  public void testLazyRowFieldsAreOnlyDecodedWhenAccessed() throws Exception {
+    StructObjectInspector inspector = createRowObjectInspector();
+    assertTrue(inspector instanceof BigQueryRowObjectInspector);
+    RecordingLazyRow row = new RecordingLazyRow(new Text("a"), new LongWritable(1), new Text("x"));
+    Object deserialized = new BigQuerySerDe().deserialize(new ObjectWritable(row));
+    assertEquals(
+        new LongWritable(1),
+        inspector.getStructFieldData(deserialized, inspector.getStructFieldRef("number")));
+    // Accessing the same field again doesn't decode it again
+    assertEquals(
+        new LongWritable(1),
+        inspector.getStructFieldData(deserialized, inspector.getStructFieldRef("number")));
+    assertEquals(Arrays.asList(1), row.decodedColumns);
+    // Once the row moves on, the values are decoded again from the new data
+    row.moveTo(new Text("b"), new LongWritable(2), new Text("y"));
+    assertEquals(
+        new Text("b"), inspector.getStructFieldData(row, inspector.getStructFieldRef("name")));
+    assertEquals(Arrays.asList(1, 0), row.decodedColumns);
+    assertEquals(
+        Arrays.asList(new Text("b"), new LongWritable(2), new Text("y")),
+        inspector.getStructFieldsDataAsList(row));
+    assertEquals(Arrays.asList(1, 0, 1, 2), row.decodedColumns);
+  }
+
+  @Test
+  public void testArrayRowsAreInspectedAsStandardStructs() throws Exception {
+    StructObjectInspector inspector = createRowObjectInspector();
+    Object[] row = {new Text("a"), new LongWritable(1), null};
+    assertEquals(
+        new LongWritable(1),
+        inspector.getStructFieldData(row, inspector.getStructFieldRef("number")));
+    assertEquals(
+        Arrays.asList(new Text("a"), new LongWritable(1), null),
+        inspector.getStructFieldsDataAsList(row));
+  }
+}
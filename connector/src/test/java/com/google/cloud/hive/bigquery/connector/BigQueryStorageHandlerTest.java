@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.HiveStoragePredicateHandler.DecomposedPredicate;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.jupiter.api.Test;
+
+public class BigQueryStorageHandlerTest {
+
+  private static ExprNodeDesc equal(String column, TypeInfo typeInfo, Object value) {
+    return function(
+        new GenericUDFOPEqual(),
+        new ExprNodeColumnDesc(typeInfo, column, "t", false),
+        new ExprNodeConstantDesc(typeInfo, value));
+  }
+
+  private static ExprNodeGenericFuncDesc function(GenericUDF udf, ExprNodeDesc... children) {
+    return new ExprNodeGenericFuncDesc(
+        TypeInfoFactory.booleanTypeInfo, udf, Arrays.asList(children));
+  }
+
+  private static DecomposedPredicate decompose(String engine, ExprNodeDesc expr) {
+    JobConf jobConf = new JobConf();
+    HiveConf.setVar(jobConf, HiveConf.ConfVars.HIVE_EXECUTION_ENGINE, engine);
+    return new BigQueryStorageHandler().decomposePredicate(jobConf, null, expr);
+  }
+
+  /**
+   * Each side of a self-join, e.g. `SELECT ... FROM t t1 JOIN t t2 ON (...) WHERE t1.text = 'hello'
+   * AND t2.text = 'hola'`, gets its own filter. The MR engine doesn't push them to the input format
+   * since the table is scanned by two aliases, so Hive must keep evaluating them.
+   */
+  @Test
+  public void testSelfJoinFiltersStayResidualOnMapReduce() {
+    ExprNodeDesc leftFilter = equal("text", TypeInfoFactory.stringTypeInfo, "hello");
+    ExprNodeDesc rightFilter = equal("text", TypeInfoFactory.stringTypeInfo, "hola");
+    for (ExprNodeDesc filter : Arrays.asList(leftFilter, rightFilter)) {
+      DecomposedPredicate predicate = decompose("mr", filter);
+      assertEquals(filter.getExprString(), predicate.pushedPredicate.getExprString());
+      assertEquals(filter.getExprString(), predicate.residualPredicate.getExprString());
+    }
+  }
+
+  @Test
+  public void testPushedFiltersAreNotResidualOnTez() {
+    ExprNodeDesc filter = equal("text", TypeInfoFactory.stringTypeInfo, "hello");
+    DecomposedPredicate predicate = decompose("tez", filter);
+    assertEquals(filter.getExprString(), predicate.pushedPredicate.getExprString());
+    assertNull(predicate.residualPredicate);
+  }
+
+  @Test
+  public void testPseudoColumnFiltersAreNotResidualOnMapReduce() {
+    ExprNodeDesc textFilter = equal("text", TypeInfoFactory.stringTypeInfo, "hello");
+    ExprNodeDesc partitionFilter =
+        equal(Constants.PARTITION_DATE_PSEUDO_COLUMN, TypeInfoFactory.dateTypeInfo, "2022-01-01");
+    ExprNodeDesc filter = function(new GenericUDFOPAnd(), textFilter, partitionFilter);
+    DecomposedPredicate predicate = decompose("mr", filter);
+    assertEquals(filter.getExprString(), predicate.pushedPredicate.getExprString());
+    assertEquals(textFilter.getExprString(), predicate.residualPredicate.getExprString());
+  }
+
+  @Test
+  public void testUntranslatablePseudoColumnFiltersStayResidual() {
+    // Comparing a date with a number relies on implicit conversions that differ in BigQuery
+    ExprNodeDesc partitionFilter =
+        function(
+            new GenericUDFOPEqual(),
+            new ExprNodeColumnDesc(
+                TypeInfoFactory.dateTypeInfo, Constants.PARTITION_DATE_PSEUDO_COLUMN, "t", false),
+            new ExprNodeConstantDesc(TypeInfoFactory.longTypeInfo, 1L));
+    assertNull(decompose("tez", partitionFilter));
+    ExprNodeDesc textFilter = equal("text", TypeInfoFactory.stringTypeInfo, "hello");
+    DecomposedPredicate predicate =
+        decompose("tez", function(new GenericUDFOPAnd(), textFilter, partitionFilter));
+    assertEquals(textFilter.getExprString(), predicate.pushedPredicate.getExprString());
+    assertEquals(partitionFilter.getExprString(), predicate.residualPredicate.getExprString());
+    assertTrue(
+        predicate.residualPredicate.getCols().contains(Constants.PARTITION_DATE_PSEUDO_COLUMN));
+  }
+}
@@ -652,4 +652,39 @@ public class IntegrationTests {
         },
         rows.toArray());
   }
+
+  // ---------------------------------------------------------------------------------------------------
+
+  /** Join a table with itself, filtering each side differently */
+  @CartesianTest
+  public void testSelfJoinWithFilters(
+      @Values(strings = {"mr", "tez"}) String engine,
+      @Values(strings = {HiveBigQueryConfig.ARROW, HiveBigQueryConfig.AVRO})
+          String readDataFormat) {
+    // Create the BQ table
+    runBqQuery(BIGQUERY_TEST_TABLE_CREATE_QUERY);
+    // Insert data into the BQ table using the BQ SDK
+    runBqQuery(
+        Stream.of(
+                String.format("INSERT `%s.%s` VALUES", DATASET, TEST_TABLE_NAME),
+                "(1, 'hello'), (2, 'bonjour'), (1, 'hola')")
+            .collect(Collectors.joining("\n")));
+    // Create the Hive table
+    initHive(engine, readDataFormat);
+    hive.execute(HIVE_TEST_TABLE_CREATE_QUERY);
+    // The table is scanned by two aliases, each with its own filter
+    List<Object[]> rows =
+        hive.executeStatement(
+            Stream.of(
+                    "SELECT",
+                    "t1.number,",
+                    "t1.text,",
+                    "t2.text",
+                    "FROM " + TEST_TABLE_NAME + " t1",
+                    "JOIN " + TEST_TABLE_NAME + " t2",
+                    "ON (t1.number = t2.number)",
+                    "WHERE t1.text = 'hello' AND t2.text = 'hola'")
+                .collect(Collectors.joining("\n")));
+    assertArrayEquals(new Object[] {new Object[] {1L, "hello", "hola"}}, rows.toArray());
+  }
 }
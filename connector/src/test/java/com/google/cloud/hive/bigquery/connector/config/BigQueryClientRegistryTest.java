@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.gax.core.BackgroundResource;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry.Lease;
+import com.google.cloud.hive.bigquery.connector.config.BigQueryClientRegistry.RegisteredClients;
+import com.google.inject.Guice;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.common.base.Ticker;
+import repackaged.by.hivebqconnector.com.google.common.cache.Cache;
+
+public class BigQueryClientRegistryTest {
+
+  private static class FakeTicker extends Ticker {
+    final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos.addAndGet(unit.toNanos(duration));
+    }
+  }
+
+  private static class FakeClient implements BackgroundResource {
+    boolean closed = false;
+
+    @Override
+    public void shutdown() {
+      closed = true;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return closed;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return closed;
+    }
+
+    @Override
+    public void shutdownNow() {
+      closed = true;
+    }
+
+    @Override
+    public boolean awaitTermination(long duration, TimeUnit unit) {
+      return closed;
+    }
+
+    @Override
+    public void close() throws Exception {
+      if (closed) {
+        throw new IllegalStateException("Already closed");
+      }
+      closed = true;
+    }
+  }
+
+  private static List<Object> key(String credentials) {
+    return Collections.singletonList(credentials);
+  }
+
+  private static RegisteredClients register(
+      Cache<List<Object>, RegisteredClients> cache, String credentials, FakeClient client) {
+    RegisteredClients registered = new RegisteredClients(Guice.createInjector(), key(credentials));
+    registered.track(client);
+    cache.put(key(credentials), registered);
+    return registered;
+  }
+
+  private static Lease acquire(
+      Cache<List<Object>, RegisteredClients> cache,
+      String credentials,
+      String accessToken,
+      FakeClient client) {
+    List<Object> connectionKey = Arrays.asList(credentials, accessToken);
+    return BigQueryClientRegistry.acquire(
+        cache,
+        key(credentials),
+        connectionKey,
+        () -> {
+          RegisteredClients registered =
+              new RegisteredClients(Guice.createInjector(), connectionKey);
+          registered.track(client);
+          return registered;
+        });
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedAndClosesItsClients() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(2, 60, new FakeTicker());
+    FakeClient first = new FakeClient();
+    FakeClient second = new FakeClient();
+    FakeClient third = new FakeClient();
+    register(cache, "first", first);
+    register(cache, "second", second);
+    assertNotNull(cache.getIfPresent(key("first")));
+    register(cache, "third", third);
+    assertNull(cache.getIfPresent(key("second")));
+    assertTrue(second.closed);
+    assertFalse(first.closed);
+    assertFalse(third.closed);
+  }
+
+  @Test
+  public void testExpiresIdleInjectorsAndClosesTheirClients() {
+    FakeTicker ticker = new FakeTicker();
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(100, 60, ticker);
+    FakeClient idle = new FakeClient();
+    FakeClient active = new FakeClient();
+    register(cache, "idle", idle);
+    register(cache, "active", active);
+    ticker.advance(40, TimeUnit.MINUTES);
+    assertNotNull(cache.getIfPresent(key("active")));
+    ticker.advance(40, TimeUnit.MINUTES);
+    assertNotNull(cache.getIfPresent(key("active")));
+    assertNull(cache.getIfPresent(key("idle")));
+    cache.cleanUp();
+    assertTrue(idle.closed);
+    assertFalse(active.closed);
+  }
+
+  @Test
+  public void testInvalidateAllClosesAllClients() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(100, 60, new FakeTicker());
+    FakeClient readClient = new FakeClient();
+    FakeClient writeClient = new FakeClient();
+    RegisteredClients registered = register(cache, "credentials", readClient);
+    registered.track(writeClient);
+    cache.invalidateAll();
+    assertTrue(readClient.closed);
+    assertTrue(writeClient.closed);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEvictedClientsAreClosedWhenTheLastLeaseIsReleased() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(1, 60, new FakeTicker());
+    FakeClient client = new FakeClient();
+    Lease reader = acquire(cache, "first", "token", client);
+    Lease writer = acquire(cache, "first", "token", new FakeClient());
+    assertSame(reader.getInjector(), writer.getInjector());
+    // Evicts the first injector while its clients are still in use
+    acquire(cache, "second", "token", new FakeClient()).close();
+    assertNull(cache.getIfPresent(key("first")));
+    assertFalse(client.closed);
+    reader.close();
+    // Closing a lease twice doesn't release the clients of another lease
+    reader.close();
+    assertFalse(client.closed);
+    writer.close();
+    assertTrue(client.closed);
+  }
+
+  @Test
+  public void testReleasedClientsStayOpenUntilEvicted() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(100, 60, new FakeTicker());
+    FakeClient client = new FakeClient();
+    acquire(cache, "credentials", "token", client).close();
+    try (Lease lease = acquire(cache, "credentials", "token", new FakeClient())) {
+      assertNotNull(lease.getInjector());
+    }
+    assertFalse(client.closed);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testNewAccessTokenReplacesTheClients() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(100, 60, new FakeTicker());
+    FakeClient oldClient = new FakeClient();
+    FakeClient newClient = new FakeClient();
+    Lease oldLease = acquire(cache, "credentials", "old-token", oldClient);
+    Lease newLease = acquire(cache, "credentials", "new-token", newClient);
+    assertNotSame(oldLease.getInjector(), newLease.getInjector());
+    // Tokens don't pile up in the registry
+    assertEquals(1, cache.size());
+    assertFalse(oldClient.closed);
+    oldLease.close();
+    assertTrue(oldClient.closed);
+    newLease.close();
+    assertFalse(newClient.closed);
+  }
+
+  @Test
+  public void testClientCreatedAfterClosingIsClosed() {
+    Cache<List<Object>, RegisteredClients> cache =
+        BigQueryClientRegistry.createCache(100, 60, new FakeTicker());
+    RegisteredClients registered = register(cache, "credentials", new FakeClient());
+    cache.invalidate(key("credentials"));
+    FakeClient lateClient = new FakeClient();
+    registered.track(lateClient);
+    assertTrue(lateClient.closed);
+  }
+}
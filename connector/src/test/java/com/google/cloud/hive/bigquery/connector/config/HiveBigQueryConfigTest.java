@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.storage.v1.CreateReadSessionRequest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Optional;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.protobuf.InvalidProtocolBufferException;
+import repackaged.by.hivebqconnector.com.google.protobuf.Timestamp;
+
+public class HiveBigQueryConfigTest {
+
+  private static Configuration newConf() {
+    Configuration conf = new Configuration();
+    conf.set(HiveConf.ConfVars.HIVEQUERYID.varname, "query");
+    return conf;
+  }
+
+  private static CreateReadSessionRequest decode(Optional<String> encodedRequest)
+      throws InvalidProtocolBufferException {
+    return CreateReadSessionRequest.parseFrom(Base64.getDecoder().decode(encodedRequest.get()));
+  }
+
+  @Test
+  public void testSnapshotTimeSetsTableModifiers() throws InvalidProtocolBufferException {
+    Configuration conf = newConf();
+    conf.set(HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY, "2022-01-01T12:34:56.789Z");
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(conf, null);
+    Instant snapshotTime = Instant.parse("2022-01-01T12:34:56.789Z");
+    assertEquals(Optional.of(snapshotTime), config.getSnapshotTime());
+    CreateReadSessionRequest request =
+        decode(config.toReadSessionCreatorConfig().getRequestEncodedBase());
+    assertEquals(
+        Timestamp.newBuilder()
+            .setSeconds(snapshotTime.getEpochSecond())
+            .setNanos(snapshotTime.getNano())
+            .build(),
+        request.getReadSession().getTableModifiers().getSnapshotTime());
+  }
+
+  @Test
+  public void testSnapshotTimeFromTableParameters() {
+    HiveBigQueryConfig config =
+        HiveBigQueryConfig.from(
+            newConf(),
+            Collections.singletonMap(
+                HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY, "2022-06-30T00:00:00Z"));
+    assertEquals(Optional.of(Instant.parse("2022-06-30T00:00:00Z")), config.getSnapshotTime());
+  }
+
+  @Test
+  public void testNoSnapshotTime() {
+    HiveBigQueryConfig config = HiveBigQueryConfig.from(newConf(), null);
+    assertFalse(config.getSnapshotTime().isPresent());
+    assertFalse(config.toReadSessionCreatorConfig().getRequestEncodedBase().isPresent());
+  }
+
+  @Test
+  public void testRejectInvalidSnapshotTime() {
+    Configuration conf = newConf();
+    conf.set(HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY, "2022-01-01");
+    assertThrows(RuntimeException.class, () -> HiveBigQueryConfig.from(conf, null));
+  }
+
+  @Test
+  public void testReadRowOptions() {
+    HiveBigQueryConfig defaults = HiveBigQueryConfig.from(newConf(), null);
+    assertFalse(defaults.isReadReuseObjects());
+    assertFalse(defaults.isReadLazyRows());
+    Configuration conf = newConf();
+    conf.set(HiveBigQueryConfig.READ_REUSE_OBJECTS_KEY, "true");
+    HiveBigQueryConfig config =
+        HiveBigQueryConfig.from(
+            conf, Collections.singletonMap(HiveBigQueryConfig.READ_LAZY_ROWS_KEY, "true"));
+    assertTrue(config.isReadReuseObjects());
+    assertTrue(config.isReadLazyRows());
+  }
+
+  @Test
+  public void testCountFromMetadataIsOptIn() {
+    // The table's row count ignores row access policies
+    assertFalse(HiveBigQueryConfig.from(newConf(), null).isCountFromMetadata());
+    HiveBigQueryConfig config =
+        HiveBigQueryConfig.from(
+            newConf(),
+            Collections.singletonMap(HiveBigQueryConfig.READ_COUNT_FROM_METADATA_KEY, "true"));
+    assertTrue(config.isCountFromMetadata());
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.generic.*;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.junit.jupiter.api.Test;
+
+public class BigQueryFiltersTest {
+
+  private static ExprNodeDesc column(String name, TypeInfo typeInfo) {
+    return new ExprNodeColumnDesc(typeInfo, name, "t", false);
+  }
+
+  private static ExprNodeDesc constant(TypeInfo typeInfo, Object value) {
+    return new ExprNodeConstantDesc(typeInfo, value);
+  }
+
+  private static ExprNodeGenericFuncDesc function(GenericUDF udf, ExprNodeDesc... children) {
+    return new ExprNodeGenericFuncDesc(
+        TypeInfoFactory.booleanTypeInfo, udf, Arrays.asList(children));
+  }
+
+  @Test
+  public void testTranslateComparisons() {
+    ExprNodeDesc expr =
+        function(
+            new GenericUDFOPOr(),
+            function(
+                new GenericUDFOPEqual(),
+                column("name", TypeInfoFactory.stringTypeInfo),
+                constant(TypeInfoFactory.stringTypeInfo, "it's")),
+            function(
+                new GenericUDFOPNot(),
+                function(
+                    new GenericUDFOPGreaterThan(),
+                    column("number", TypeInfoFactory.longTypeInfo),
+                    constant(TypeInfoFactory.intTypeInfo, 5))));
+    assertEquals(
+        "((`name` = 'it\\'s') OR (NOT (`number` > 5)))", BigQueryFilters.translateFilters(expr));
+  }
+
+  @Test
+  public void testTranslateInAndBetween() {
+    ExprNodeDesc in =
+        function(
+            new GenericUDFIn(),
+            column("number", TypeInfoFactory.longTypeInfo),
+            constant(TypeInfoFactory.longTypeInfo, 1L),
+            constant(TypeInfoFactory.longTypeInfo, 2L));
+    assertEquals("(`number` IN (1, 2))", BigQueryFilters.translate(in));
+    ExprNodeDesc between =
+        function(
+            new GenericUDFBetween(),
+            constant(TypeInfoFactory.booleanTypeInfo, true),
+            column("day", TypeInfoFactory.dateTypeInfo),
+            constant(TypeInfoFactory.dateTypeInfo, "2022-01-01"),
+            constant(TypeInfoFactory.dateTypeInfo, "2022-12-31"));
+    assertEquals(
+        "(`day` NOT BETWEEN DATE('2022-01-01') AND DATE('2022-12-31'))",
+        BigQueryFilters.translate(between));
+  }
+
+  @Test
+  public void testSkipUntranslatableConjuncts() {
+    // Comparing strings with numbers relies on implicit conversions that differ in BigQuery
+    ExprNodeDesc mixedTypes =
+        function(
+            new GenericUDFOPEqual(),
+            column("name", TypeInfoFactory.stringTypeInfo),
+            constant(TypeInfoFactory.longTypeInfo, 1L));
+    ExprNodeDesc isNull =
+        function(new GenericUDFOPNull(), column("name", TypeInfoFactory.stringTypeInfo));
+    assertNull(BigQueryFilters.translate(mixedTypes));
+    assertEquals(
+        "(`name` IS NULL)",
+        BigQueryFilters.translateFilters(function(new GenericUDFOPAnd(), mixedTypes, isNull)));
+    assertNull(BigQueryFilters.translateFilters(mixedTypes));
+  }
+
+  @Test
+  public void testTranslateDecimalsAsExactLiterals() {
+    ExprNodeDesc small =
+        function(
+            new GenericUDFOPEqual(),
+            column("price", TypeInfoFactory.getDecimalTypeInfo(10, 2)),
+            constant(TypeInfoFactory.getDecimalTypeInfo(3, 2), HiveDecimal.create("0.10")));
+    assertEquals("(`price` = NUMERIC '0.1')", BigQueryFilters.translate(small));
+    // Too many digits after the decimal point for a NUMERIC
+    ExprNodeDesc precise =
+        function(
+            new GenericUDFOPLessThan(),
+            column("ratio", TypeInfoFactory.getDecimalTypeInfo(38, 12)),
+            constant(
+                TypeInfoFactory.getDecimalTypeInfo(13, 12), HiveDecimal.create("0.123456789012")));
+    assertEquals("(`ratio` < BIGNUMERIC '0.123456789012')", BigQueryFilters.translate(precise));
+    // Integers are compared exactly with decimals in both Hive and BigQuery
+    ExprNodeDesc integer =
+        function(
+            new GenericUDFOPGreaterThan(),
+            column("price", TypeInfoFactory.getDecimalTypeInfo(10, 2)),
+            constant(TypeInfoFactory.intTypeInfo, 5));
+    assertEquals("(`price` > 5)", BigQueryFilters.translate(integer));
+  }
+
+  @Test
+  public void testSkipComparisonsBetweenDecimalsAndDoubles() {
+    // Hive compares them as doubles, while BigQuery may compare them exactly
+    ExprNodeDesc decimalColumn =
+        function(
+            new GenericUDFOPEqual(),
+            column("price", TypeInfoFactory.getDecimalTypeInfo(10, 2)),
+            constant(TypeInfoFactory.doubleTypeInfo, 0.1));
+    ExprNodeDesc doubleColumn =
+        function(
+            new GenericUDFOPEqual(),
+            column("ratio", TypeInfoFactory.doubleTypeInfo),
+            constant(TypeInfoFactory.getDecimalTypeInfo(2, 1), HiveDecimal.create("0.1")));
+    assertNull(BigQueryFilters.translate(decimalColumn));
+    assertNull(BigQueryFilters.translate(doubleColumn));
+    // Integers can still be compared with doubles
+    ExprNodeDesc integer =
+        function(
+            new GenericUDFOPEqual(),
+            column("ratio", TypeInfoFactory.doubleTypeInfo),
+            constant(TypeInfoFactory.longTypeInfo, 1L));
+    assertEquals("(`ratio` = 1)", BigQueryFilters.translate(integer));
+  }
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.connector.common.ReadSessionResponse;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import com.google.cloud.bigquery.storage.v1.ReadStream;
+import com.google.cloud.bigquery.storage.v1.SplitReadStreamRequest;
+import com.google.cloud.bigquery.storage.v1.SplitReadStreamResponse;
+import com.google.cloud.hive.bigquery.connector.Constants;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.CompilationOpContext;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.MapWork;
+import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputFormat;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.protobuf.Timestamp;
+
+public class BigQueryInputSplitTest {
+
+  private static Map<String, Double> shares(Object... namesAndShares) {
+    Map<String, Double> shares = new LinkedHashMap<>();
+    for (int i = 0; i < namesAndShares.length; i += 2) {
+      shares.put((String) namesAndShares[i], (Double) namesAndShares[i + 1]);
+    }
+    return shares;
+  }
+
+  @Test
+  public void testGroupStreamsUpToTargetSize() {
+    Map<String, Double> shares = shares("s1", 1.0, "s2", 1.0, "s3", 1.0, "s4", 1.0, "s5", 1.0);
+    assertEquals(
+        Arrays.asList(Arrays.asList("s1", "s2"), Arrays.asList("s3", "s4"), Arrays.asList("s5")),
+        BigQueryInputSplit.groupStreams(shares, 100, 250));
+    // A stream larger than the target size still gets its own split
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("s1"),
+            Arrays.asList("s2"),
+            Arrays.asList("s3"),
+            Arrays.asList("s4"),
+            Arrays.asList("s5")),
+        BigQueryInputSplit.groupStreams(shares, 100, 50));
+  }
+
+  @Test
+  public void testGroupStreamsBySharedSize() {
+    // Streams that were split in half only count for half of an original stream's size
+    Map<String, Double> shares = shares("s1", 1.0, "s2a", 0.5, "s2b", 0.5, "s3", 1.0);
+    assertEquals(
+        Arrays.asList(Arrays.asList("s1"), Arrays.asList("s2a", "s2b"), Arrays.asList("s3")),
+        BigQueryInputSplit.groupStreams(shares, 100, 100));
+    assertEquals(
+        Arrays.asList(Arrays.asList("s1", "s2a", "s2b"), Arrays.asList("s3")),
+        BigQueryInputSplit.groupStreams(shares, 100, 200));
+  }
+
+  @Test
+  public void testNoGroupingWithoutTargetSize() {
+    Map<String, Double> shares = shares("s1", 0.5, "s2", 0.5);
+    assertEquals(
+        Arrays.asList(Collections.singletonList("s1"), Collections.singletonList("s2")),
+        BigQueryInputSplit.groupStreams(shares, 1, 0));
+  }
+
+  private static BigQueryInputSplit roundTrip(BigQueryInputSplit split) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    split.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    BigQueryInputSplit copy = new BigQueryInputSplit();
+    copy.readFields(in);
+    assertEquals(in.getLength(), in.getPosition());
+    return copy;
+  }
+
+  private static List<ReadStream> readStreams(String... names) {
+    List<ReadStream> streams = new ArrayList<>();
+    for (String name : names) {
+      streams.add(ReadStream.newBuilder().setName(name).build());
+    }
+    return streams;
+  }
+
+  /** Splits every stream in half, except for the given ones, which are too small to be split. */
+  private static Function<SplitReadStreamRequest, SplitReadStreamResponse> splitter(
+      List<String> requested, String... unsplittable) {
+    return request -> {
+      requested.add(request.getName());
+      assertEquals(0.5, request.getFraction());
+      if (Arrays.asList(unsplittable).contains(request.getName())) {
+        return SplitReadStreamResponse.getDefaultInstance();
+      }
+      return SplitReadStreamResponse.newBuilder()
+          .setPrimaryStream(ReadStream.newBuilder().setName(request.getName() + "p"))
+          .setRemainderStream(ReadStream.newBuilder().setName(request.getName() + "r"))
+          .build();
+    };
+  }
+
+  @Test
+  public void testSplitReadStreamsUntilMinStreams() {
+    List<String> requested = new ArrayList<>();
+    Map<String, Double> shares =
+        BigQueryInputSplit.splitReadStreams(readStreams("s1", "s2"), 5, splitter(requested));
+    // The streams are split breadth-first, and the original streams aren't read anymore
+    assertEquals(Arrays.asList("s1", "s2", "s1p"), requested);
+    assertEquals(shares("s1r", 0.5, "s2p", 0.5, "s2r", 0.5, "s1pp", 0.25, "s1pr", 0.25), shares);
+    assertEquals(
+        Arrays.asList("s1r", "s2p", "s2r", "s1pp", "s1pr"), new ArrayList<>(shares.keySet()));
+  }
+
+  @Test
+  public void testSplitReadStreamsSkipsStreamsTooSmallToSplit() {
+    List<String> requested = new ArrayList<>();
+    Map<String, Double> shares =
+        BigQueryInputSplit.splitReadStreams(
+            readStreams("s1", "s2"), 8, splitter(requested, "s1", "s2p", "s2r"));
+    // Stops once no stream can be split anymore, even if there are fewer than requested
+    assertEquals(Arrays.asList("s1", "s2", "s2p", "s2r"), requested);
+    assertEquals(shares("s1", 1.0, "s2p", 0.5, "s2r", 0.5), shares);
+  }
+
+  @Test
+  public void testNoStreamSplittingWhenThereAreEnoughStreams() {
+    List<String> requested = new ArrayList<>();
+    assertEquals(
+        shares("s1", 1.0, "s2", 1.0),
+        BigQueryInputSplit.splitReadStreams(readStreams("s1", "s2"), 2, splitter(requested)));
+    assertEquals(
+        shares("s1", 1.0),
+        BigQueryInputSplit.splitReadStreams(readStreams("s1"), 0, splitter(requested)));
+    // A session without any stream, e.g. for an empty table, has nothing to split
+    assertTrue(
+        BigQueryInputSplit.splitReadStreams(readStreams(), 4, splitter(requested)).isEmpty());
+    assertTrue(requested.isEmpty());
+  }
+
+  @Test
+  public void testEstimateStreamLength() {
+    // The table's size is spread over the streams, in proportion to the columns that are read
+    assertEquals(250, BigQueryInputSplit.estimateStreamLength(1000L, 4, 4, 4));
+    assertEquals(100, BigQueryInputSplit.estimateStreamLength(1000L, 2, 4, 5));
+    // Small estimates are rounded up to a byte rather than down to 0
+    assertEquals(1, BigQueryInputSplit.estimateStreamLength(3L, 1, 4, 10));
+    // The size of views and external tables is unknown
+    assertEquals(1, BigQueryInputSplit.estimateStreamLength(null, 4, 4, 4));
+    assertEquals(1, BigQueryInputSplit.estimateStreamLength(1000L, 4, 4, 0));
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws IOException {
+    BigQueryInputSplit split =
+        roundTrip(
+            new BigQueryInputSplit(
+                new Path("gs://bucket/warehouse"),
+                Arrays.asList("stream1", "stream2"),
+                Arrays.asList("a", "b"),
+                null,
+                1234,
+                56789,
+                true,
+                10));
+    assertEquals(new Path("gs://bucket/warehouse"), split.getPath());
+    assertEquals(Arrays.asList("stream1", "stream2"), split.getStreamNames());
+    assertEquals(1234, split.getEstimatedRowCount());
+    assertEquals(56789, split.getLength());
+    assertTrue(split.isRowCountOnly());
+    assertEquals(10, split.getRowLimit());
+  }
+
+  @Test
+  public void testSerializationRoundTripWithoutStreams() throws IOException {
+    // Splits answered from the table's metadata don't have any stream
+    BigQueryInputSplit split =
+        roundTrip(
+            new BigQueryInputSplit(
+                new Path("/warehouse"),
+                new ArrayList<>(),
+                Collections.singletonList("a"),
+                null,
+                Long.MAX_VALUE,
+                1,
+                false,
+                -1));
+    assertTrue(split.getStreamNames().isEmpty());
+    assertEquals(Long.MAX_VALUE, split.getEstimatedRowCount());
+    assertFalse(split.isRowCountOnly());
+    assertEquals(-1, split.getRowLimit());
+  }
+
+  private static List<Long> rowCountSplitSizes(long numRows) {
+    List<Long> sizes = new ArrayList<>();
+    for (InputSplit split :
+        BigQueryInputSplit.createRowCountSplits(
+            new Path("/warehouse"), COLUMN_NAMES, null, numRows)) {
+      BigQueryInputSplit bqSplit = (BigQueryInputSplit) split;
+      assertTrue(bqSplit.getStreamNames().isEmpty());
+      assertTrue(bqSplit.isRowCountOnly());
+      sizes.add(bqSplit.getEstimatedRowCount());
+    }
+    return sizes;
+  }
+
+  @Test
+  public void testRowCountSplitsSpreadRows() {
+    long perSplit = BigQueryInputSplit.ROWS_PER_ROW_COUNT_SPLIT;
+    assertEquals(Collections.singletonList(0L), rowCountSplitSizes(0));
+    assertEquals(Collections.singletonList(perSplit), rowCountSplitSizes(perSplit));
+    // The remainder is spread over the first splits
+    assertEquals(Arrays.asList(perSplit / 2 + 1, perSplit / 2), rowCountSplitSizes(perSplit + 1));
+    // Very large tables get bigger splits rather than more of them
+    long numRows = perSplit * BigQueryInputSplit.MAX_ROW_COUNT_SPLITS * 3 + 1;
+    List<Long> sizes = rowCountSplitSizes(numRows);
+    assertEquals(BigQueryInputSplit.MAX_ROW_COUNT_SPLITS, sizes.size());
+    assertEquals(numRows, sizes.stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  public void testRejectUnknownSerializationVersion() {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(new byte[] {2}, 1);
+    assertThrows(IOException.class, () -> new BigQueryInputSplit().readFields(in));
+  }
+
+  private static final TableId TABLE_ID = TableId.of("project", "dataset", "table");
+
+  // Columns of an ingestion-time partitioned table that declares both pseudo-columns
+  private static final List<String> PSEUDO_COLUMN_TABLE =
+      Arrays.asList(
+          "name", Constants.PARTITION_TIME_PSEUDO_COLUMN, Constants.PARTITION_DATE_PSEUDO_COLUMN);
+  private static final List<String> COLUMN_NAMES = Arrays.asList("id", "name", "tags", "payload");
+
+  private static TableScanOperator tableScan(String alias, String... neededColumns) {
+    TableScanOperator tableScan = new TableScanOperator(new CompilationOpContext());
+    TableScanDesc tableScanDesc = new TableScanDesc();
+    tableScanDesc.setAlias(alias);
+    tableScan.setConf(tableScanDesc);
+    tableScan.setNeededColumns(neededColumns == null ? null : Arrays.asList(neededColumns));
+    return tableScan;
+  }
+
+  /** Adds the given scans of a table to the plan, all reading the same path like in a self-join. */
+  private static void addTableScans(
+      MapWork mapWork, TableId tableId, TableScanOperator... tableScans) {
+    Properties properties = new Properties();
+    properties.setProperty(HiveBigQueryConfig.PROJECT_KEY, tableId.getProject());
+    properties.setProperty(HiveBigQueryConfig.DATASET_KEY, tableId.getDataset());
+    properties.setProperty(HiveBigQueryConfig.TABLE_KEY, tableId.getTable());
+    Path path = new Path("/warehouse/" + tableId.getTable());
+    PartitionDesc partitionDesc = new PartitionDesc();
+    partitionDesc.setTableDesc(new TableDesc(InputFormat.class, OutputFormat.class, properties));
+    mapWork.addPathToPartitionInfo(path, partitionDesc);
+    for (TableScanOperator tableScan : tableScans) {
+      mapWork.addPathToAlias(path, tableScan.getConf().getAlias());
+      mapWork.getAliasToWork().put(tableScan.getConf().getAlias(), tableScan);
+    }
+  }
+
+  @Test
+  public void testMapRedSelectedFieldsOfSelfJoin() {
+    MapWork mapWork = new MapWork();
+    addTableScans(mapWork, TABLE_ID, tableScan("t1", "id", "name"), tableScan("t2", "id", "tags"));
+    addTableScans(
+        mapWork, TableId.of("project", "dataset", "other"), tableScan("t3", "id", "payload"));
+    List<TableScanOperator> tableScans = BigQueryInputSplit.getTableScans(mapWork, TABLE_ID);
+    assertEquals(2, tableScans.size());
+    assertEquals(
+        new HashSet<>(Arrays.asList("id", "name", "tags")),
+        BigQueryInputSplit.getMapRedSelectedFields(tableScans, COLUMN_NAMES));
+  }
+
+  @Test
+  public void testMapRedSelectedFieldsIgnoreNonTableColumns() {
+    MapWork mapWork = new MapWork();
+    addTableScans(
+        mapWork, TABLE_ID, tableScan("t1", "name", "BLOCK__OFFSET__INSIDE__FILE", "ROW__ID"));
+    assertEquals(
+        Collections.singleton("name"),
+        BigQueryInputSplit.getMapRedSelectedFields(
+            BigQueryInputSplit.getTableScans(mapWork, TABLE_ID), COLUMN_NAMES));
+    // Scans that don't need any column, e.g. for COUNT(*)
+    mapWork = new MapWork();
+    addTableScans(mapWork, TABLE_ID, tableScan("t1"));
+    assertTrue(
+        BigQueryInputSplit.getMapRedSelectedFields(
+                BigQueryInputSplit.getTableScans(mapWork, TABLE_ID), COLUMN_NAMES)
+            .isEmpty());
+  }
+
+  @Test
+  public void testMapRedSelectedFieldsFallBackToAllColumns() {
+    Set<String> allColumns = new HashSet<>(COLUMN_NAMES);
+    // The plan isn't available, e.g. for a local fetch task
+    assertNull(BigQueryInputSplit.getTableScans(null, TABLE_ID));
+    assertEquals(allColumns, BigQueryInputSplit.getMapRedSelectedFields(null, COLUMN_NAMES));
+    // The plan doesn't scan the table
+    MapWork mapWork = new MapWork();
+    addTableScans(mapWork, TableId.of("project", "dataset", "other"), tableScan("t1", "id"));
+    assertNull(BigQueryInputSplit.getTableScans(mapWork, TABLE_ID));
+    // One of the scans doesn't record its needed columns
+    mapWork = new MapWork();
+    addTableScans(mapWork, TABLE_ID, tableScan("t1", "id"), tableScan("t2", (String[]) null));
+    assertEquals(
+        allColumns,
+        BigQueryInputSplit.getMapRedSelectedFields(
+            BigQueryInputSplit.getTableScans(mapWork, TABLE_ID), COLUMN_NAMES));
+  }
+
+  @Test
+  public void testMetadataCountRequiresUnfilteredScans() {
+    MapWork mapWork = new MapWork();
+    addTableScans(mapWork, TABLE_ID, tableScan("t1"), tableScan("t2"));
+    assertTrue(
+        BigQueryInputSplit.isUnfiltered(BigQueryInputSplit.getTableScans(mapWork, TABLE_ID)));
+    // In a self-join on MR, the job doesn't carry the filter of either side
+    TableScanOperator filteredScan = tableScan("t3");
+    filteredScan
+        .getConf()
+        .setFilterExpr(
+            new ExprNodeGenericFuncDesc(
+                TypeInfoFactory.booleanTypeInfo,
+                new GenericUDFOPEqual(),
+                Arrays.asList(
+                    new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "name", "t3", false),
+                    new ExprNodeConstantDesc(TypeInfoFactory.stringTypeInfo, "hello"))));
+    mapWork = new MapWork();
+    addTableScans(mapWork, TABLE_ID, tableScan("t1"), filteredScan);
+    assertFalse(
+        BigQueryInputSplit.isUnfiltered(BigQueryInputSplit.getTableScans(mapWork, TABLE_ID)));
+    // The plan isn't available
+    assertFalse(BigQueryInputSplit.isUnfiltered(null));
+  }
+
+  private static String getNarrowestColumn(
+      String allColumnNames, String columnTypes, String... columnNames) {
+    JobConf jobConf = new JobConf();
+    jobConf.set(serdeConstants.LIST_COLUMNS, allColumnNames);
+    if (columnTypes != null) {
+      jobConf.set(serdeConstants.LIST_COLUMN_TYPES, columnTypes);
+    }
+    return BigQueryInputSplit.getNarrowestColumn(jobConf, ",", Arrays.asList(columnNames));
+  }
+
+  @Test
+  public void testNarrowestColumn() {
+    assertEquals(
+        "flag",
+        getNarrowestColumn(
+            "name,tags,flag,id",
+            "string:map<string,string>:boolean:bigint",
+            "name",
+            "tags",
+            "flag",
+            "id"));
+    // Fixed-width values are cheaper than variable-length ones, and the first column wins ties
+    assertEquals(
+        "day",
+        getNarrowestColumn(
+            "name,amount,day,id",
+            "string:decimal(38,9):date:bigint",
+            "name",
+            "amount",
+            "day",
+            "id"));
+    assertEquals(
+        "amount",
+        getNarrowestColumn(
+            "name,amount,tags", "binary:decimal(10,2):array<int>", "name", "amount", "tags"));
+  }
+
+  @Test
+  public void testNarrowestColumnSkipsColumnsThatCantBeRead() {
+    // The partition pseudo-columns aren't returned by the Read API, and virtual columns aren't
+    // part of the table
+    assertEquals(
+        "id",
+        getNarrowestColumn(
+            "name," + Constants.PARTITION_DATE_PSEUDO_COLUMN + ",BLOCK__OFFSET__INSIDE__FILE,id",
+            "string:date:boolean:bigint",
+            "name",
+            Constants.PARTITION_DATE_PSEUDO_COLUMN,
+            "id"));
+  }
+
+  @Test
+  public void testNarrowestColumnFallsBackToFirstColumn() {
+    // The column types aren't available
+    assertEquals("name", getNarrowestColumn("name,flag", null, "name", "flag"));
+    // The column types don't match the columns
+    assertEquals("name", getNarrowestColumn("name,flag", "string", "name", "flag"));
+  }
+
+  private static ExprNodeGenericFuncDesc equal(String column, String value) {
+    return new ExprNodeGenericFuncDesc(
+        TypeInfoFactory.booleanTypeInfo,
+        new GenericUDFOPEqual(),
+        Arrays.asList(
+            new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, column, "t", false),
+            new ExprNodeConstantDesc(TypeInfoFactory.stringTypeInfo, value)));
+  }
+
+  @Test
+  public void testRejectReadPartitionPseudoColumns() {
+    // Selected, or used in a filter that Hive evaluates
+    RuntimeException exception =
+        assertThrows(
+            RuntimeException.class,
+            () ->
+                BigQueryInputSplit.checkPartitionPseudoColumns(
+                    new HashSet<>(Arrays.asList("name", Constants.PARTITION_TIME_PSEUDO_COLUMN)),
+                    PSEUDO_COLUMN_TABLE,
+                    null,
+                    true));
+    assertTrue(exception.getMessage().contains(Constants.PARTITION_TIME_PSEUDO_COLUMN));
+    // The only selected column, e.g. for `SELECT _partitiondate FROM t`
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                Collections.singleton(Constants.PARTITION_DATE_PSEUDO_COLUMN),
+                PSEUDO_COLUMN_TABLE,
+                null,
+                false));
+  }
+
+  @Test
+  public void testAcceptPartitionPseudoColumnsWhenReadingAllColumns() {
+    // `SELECT * FROM t`, for which Hive sees nulls in the pseudo-columns
+    assertDoesNotThrow(
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                new HashSet<>(PSEUDO_COLUMN_TABLE), PSEUDO_COLUMN_TABLE, null, true));
+    // The MR engine reads all the columns when the table scans aren't known
+    assertDoesNotThrow(
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                BigQueryInputSplit.getMapRedSelectedFields(null, PSEUDO_COLUMN_TABLE),
+                PSEUDO_COLUMN_TABLE,
+                null,
+                false));
+  }
+
+  @Test
+  public void testAcceptPushedPartitionPseudoColumnFilters() {
+    TableScanOperator tableScan = tableScan("t1", "name");
+    tableScan.getConf().setFilterExpr(equal(Constants.PARTITION_DATE_PSEUDO_COLUMN, "2022-01-01"));
+    assertDoesNotThrow(
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                Collections.singleton("name"),
+                PSEUDO_COLUMN_TABLE,
+                Collections.singletonList(tableScan),
+                true));
+    // Filters on regular columns don't need to be pushed down
+    TableScanOperator otherScan = tableScan("t2", "name");
+    otherScan.getConf().setFilterExpr(equal("name", "hello"));
+    assertDoesNotThrow(
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                Collections.singleton("name"),
+                PSEUDO_COLUMN_TABLE,
+                Arrays.asList(tableScan("t1"), otherScan),
+                false));
+  }
+
+  @Test
+  public void testRejectUnpushedPartitionPseudoColumnFiltersOnMapReduce() {
+    // The MR engine doesn't push the filters of a self-join down
+    TableScanOperator left = tableScan("t1", "name");
+    left.getConf().setFilterExpr(equal(Constants.PARTITION_DATE_PSEUDO_COLUMN, "2022-01-01"));
+    TableScanOperator right = tableScan("t2", "name");
+    right.getConf().setFilterExpr(equal("name", "hello"));
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            BigQueryInputSplit.checkPartitionPseudoColumns(
+                Collections.singleton("name"),
+                PSEUDO_COLUMN_TABLE,
+                Arrays.asList(left, right),
+                false));
+  }
+
+  private static Configuration sessionConf() {
+    Configuration conf = new Configuration();
+    conf.set(HiveConf.ConfVars.HIVEQUERYID.varname, "query");
+    return conf;
+  }
+
+  private static List<Object> sessionCacheKey(String snapshotTime) {
+    Configuration conf = sessionConf();
+    if (snapshotTime != null) {
+      conf.set(HiveBigQueryConfig.READ_SNAPSHOT_TIME_KEY, snapshotTime);
+    }
+    return sessionCacheKeyFor(conf);
+  }
+
+  private static List<Object> sessionCacheKeyFor(Configuration conf) {
+    return BigQueryInputSplit.getSessionCacheKey(
+        TABLE_ID,
+        new HashSet<>(Arrays.asList("name", "id")),
+        Optional.of("(`id` > 5)"),
+        OptionalInt.empty(),
+        HiveBigQueryConfig.from(conf, null));
+  }
+
+  @Test
+  public void testSessionCacheKeyIncludesSnapshotTime() {
+    assertEquals(sessionCacheKey("2022-01-01T00:00:00Z"), sessionCacheKey("2022-01-01T00:00:00Z"));
+    // Sessions read as of different times, or as of the current time, return different rows
+    assertNotEquals(
+        sessionCacheKey("2022-01-01T00:00:00Z"), sessionCacheKey("2022-01-02T00:00:00Z"));
+    assertNotEquals(sessionCacheKey("2022-01-01T00:00:00Z"), sessionCacheKey(null));
+    assertEquals(sessionCacheKey(null), sessionCacheKey(null));
+  }
+
+  @Test
+  public void testSessionsAreNotSharedAcrossConnections() {
+    // E.g. two users running the same query in HiveServer2
+    Configuration firstUser = sessionConf();
+    firstUser.set("gcpAccessToken", "first-token");
+    Configuration secondUser = sessionConf();
+    secondUser.set("gcpAccessToken", "second-token");
+    Configuration serviceAccount = sessionConf();
+    serviceAccount.set("credentials", "service-account-key");
+    List<Object> firstUserKey = sessionCacheKeyFor(firstUser);
+    assertEquals(firstUserKey, sessionCacheKeyFor(firstUser));
+    assertNotEquals(firstUserKey, sessionCacheKeyFor(secondUser));
+    assertNotEquals(sessionCacheKeyFor(sessionConf()), sessionCacheKeyFor(serviceAccount));
+
+    long nowMillis = System.currentTimeMillis();
+    ReadSessionResponse response =
+        new ReadSessionResponse(
+            ReadSession.newBuilder()
+                .setName("first-user-session")
+                .setExpireTime(
+                    Timestamp.newBuilder()
+                        .setSeconds(TimeUnit.MILLISECONDS.toSeconds(nowMillis) + 6 * 3600))
+                .build(),
+            null);
+    ReadSessionCache.put(firstUserKey, response, nowMillis);
+    assertEquals(response, ReadSessionCache.get(firstUserKey, 60, nowMillis));
+    assertNull(ReadSessionCache.get(sessionCacheKeyFor(secondUser), 60, nowMillis));
+  }
+}
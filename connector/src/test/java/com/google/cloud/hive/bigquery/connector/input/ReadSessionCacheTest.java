@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.cloud.bigquery.connector.common.ReadSessionResponse;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.protobuf.Timestamp;
+
+public class ReadSessionCacheTest {
+
+  private static final long NOW_MILLIS = TimeUnit.DAYS.toMillis(20000);
+
+  private static ReadSessionResponse session(String name, long expireTimeMillis) {
+    ReadSession readSession =
+        ReadSession.newBuilder()
+            .setName(name)
+            .setExpireTime(
+                Timestamp.newBuilder()
+                    .setSeconds(TimeUnit.MILLISECONDS.toSeconds(expireTimeMillis))
+                    .build())
+            .build();
+    return new ReadSessionResponse(readSession, null);
+  }
+
+  @Test
+  public void testHitWithinTtl() {
+    List<Object> key = Arrays.asList("hit", "project.dataset.table");
+    ReadSessionResponse response = session("hit", NOW_MILLIS + TimeUnit.HOURS.toMillis(6));
+    ReadSessionCache.put(key, response, NOW_MILLIS);
+    assertSame(response, ReadSessionCache.get(key, 60, NOW_MILLIS + 1000));
+    assertSame(response, ReadSessionCache.get(key, 60, NOW_MILLIS + 60_000));
+    assertNull(ReadSessionCache.get(Arrays.asList("hit", "other"), 60, NOW_MILLIS));
+  }
+
+  @Test
+  public void testMissAfterTtl() {
+    List<Object> key = Arrays.asList("ttl", "project.dataset.table");
+    ReadSessionCache.put(key, session("ttl", NOW_MILLIS + TimeUnit.HOURS.toMillis(6)), NOW_MILLIS);
+    assertNull(ReadSessionCache.get(key, 60, NOW_MILLIS + 60_001));
+    // The stale session was evicted
+    assertNull(ReadSessionCache.get(key, 3600, NOW_MILLIS));
+  }
+
+  @Test
+  public void testMissWhenSessionExpiresSoon() {
+    List<Object> key = Arrays.asList("lifetime", "project.dataset.table");
+    // The tasks need the session to remain valid for at least an hour
+    ReadSessionCache.put(
+        key, session("lifetime", NOW_MILLIS + TimeUnit.MINUTES.toMillis(90)), NOW_MILLIS);
+    assertNotNull(ReadSessionCache.get(key, 3600, NOW_MILLIS + TimeUnit.MINUTES.toMillis(29)));
+    assertNull(ReadSessionCache.get(key, 3600, NOW_MILLIS + TimeUnit.MINUTES.toMillis(31)));
+  }
+}
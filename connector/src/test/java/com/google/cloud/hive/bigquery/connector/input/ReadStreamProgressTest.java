@@ -0,0 +1,265 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.bigquery.storage.v1.StreamStats;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.common.util.concurrent.Uninterruptibles;
+
+public class ReadStreamProgressTest {
+
+  /** Serves the given number of responses per stream, with the given number of rows each. */
+  private static class FakeStreams {
+    final Map<String, List<Long>> streams = new LinkedHashMap<>();
+    final List<String> opened = new ArrayList<>();
+    final List<String> closed = new ArrayList<>();
+    int numResponsesServed = 0;
+
+    FakeStreams add(String streamName, Long... rowCounts) {
+      streams.put(streamName, Arrays.asList(rowCounts));
+      return this;
+    }
+
+    ReadStreamProgress progress(long rowLimit) {
+      return new ReadStreamProgress(new ArrayList<>(streams.keySet()), 0, rowLimit, this::open);
+    }
+
+    private ReadStreamProgress.StreamReader open(String streamName) {
+      opened.add(streamName);
+      Iterator<Long> rowCounts = streams.get(streamName).iterator();
+      return new ReadStreamProgress.StreamReader() {
+        @Override
+        public Iterator<ReadRowsResponse> readRows() {
+          return new Iterator<ReadRowsResponse>() {
+            @Override
+            public boolean hasNext() {
+              return rowCounts.hasNext();
+            }
+
+            @Override
+            public ReadRowsResponse next() {
+              numResponsesServed++;
+              return ReadRowsResponse.newBuilder().setRowCount(rowCounts.next()).build();
+            }
+          };
+        }
+
+        @Override
+        public void close() {
+          closed.add(streamName);
+        }
+      };
+    }
+  }
+
+  private static long readAll(ReadStreamProgress progress) {
+    long numRows = 0;
+    while (progress.hasNext()) {
+      numRows += progress.next().getRowCount();
+    }
+    return numRows;
+  }
+
+  /** Returns a progress over the given streams, whose responses are given in order. */
+  private static ReadStreamProgress progress(
+      long estimatedRowCount, Map<String, List<ReadRowsResponse>> streams) {
+    return new ReadStreamProgress(
+        new ArrayList<>(streams.keySet()),
+        estimatedRowCount,
+        -1,
+        streamName ->
+            new ReadStreamProgress.StreamReader() {
+              @Override
+              public Iterator<ReadRowsResponse> readRows() {
+                return streams.get(streamName).iterator();
+              }
+
+              @Override
+              public void close() {}
+            });
+  }
+
+  private static ReadRowsResponse response(long rowCount) {
+    return ReadRowsResponse.newBuilder().setRowCount(rowCount).build();
+  }
+
+  private static ReadRowsResponse response(long rowCount, double atResponseEnd) {
+    return ReadRowsResponse.newBuilder()
+        .setRowCount(rowCount)
+        .setStats(
+            StreamStats.newBuilder()
+                .setProgress(StreamStats.Progress.newBuilder().setAtResponseEnd(atResponseEnd)))
+        .build();
+  }
+
+  @Test
+  public void testProgressFromResponseStats() {
+    Map<String, List<ReadRowsResponse>> streams = new LinkedHashMap<>();
+    streams.put("s1", Arrays.asList(response(10, 0.5), response(10, 1.0)));
+    streams.put("s2", Arrays.asList(response(10, 0.25), response(30, 1.0)));
+    // The stats are preferred over the estimated row count
+    ReadStreamProgress progress = progress(1000, streams);
+    assertEquals(0.0f, progress.getProgress());
+    progress.next();
+    assertEquals(0.25f, progress.getProgress());
+    progress.next();
+    assertEquals(0.5f, progress.getProgress());
+    progress.next();
+    assertEquals(0.625f, progress.getProgress());
+    progress.next();
+    assertEquals(1.0f, progress.getProgress());
+    assertFalse(progress.hasNext());
+    assertEquals(1.0f, progress.getProgress());
+    assertEquals(60, progress.getRowsRead());
+  }
+
+  @Test
+  public void testProgressFromEstimatedRowCount() {
+    Map<String, List<ReadRowsResponse>> streams = new LinkedHashMap<>();
+    streams.put("s1", Arrays.asList(response(4), response(4), response(4)));
+    ReadStreamProgress progress = progress(10, streams);
+    progress.next();
+    assertEquals(0.4f, progress.getProgress());
+    progress.next();
+    assertEquals(0.8f, progress.getProgress());
+    // The estimate may be too low, but the progress never goes past the end
+    progress.next();
+    assertEquals(1.0f, progress.getProgress());
+  }
+
+  @Test
+  public void testProgressFromCompletedStreams() {
+    // Neither stats nor an estimate are available
+    Map<String, List<ReadRowsResponse>> streams = new LinkedHashMap<>();
+    streams.put("s1", Collections.singletonList(response(4)));
+    streams.put("s2", Collections.singletonList(response(4)));
+    ReadStreamProgress progress = progress(0, streams);
+    progress.next();
+    assertEquals(0.0f, progress.getProgress());
+    progress.next();
+    assertEquals(0.5f, progress.getProgress());
+    assertFalse(progress.hasNext());
+    assertEquals(1.0f, progress.getProgress());
+  }
+
+  @Test
+  public void testReadsAllStreamsWithoutLimit() {
+    FakeStreams streams = new FakeStreams().add("s1", 3L, 3L).add("s2", 4L);
+    ReadStreamProgress progress = streams.progress(-1);
+    assertEquals(10, readAll(progress));
+    assertEquals(10, progress.getRowsRead());
+    assertEquals(Arrays.asList("s1", "s2"), streams.opened);
+    assertEquals(1.0f, progress.getProgress());
+  }
+
+  @Test
+  public void testStopsOnceRowLimitIsReached() {
+    FakeStreams streams = new FakeStreams().add("s1", 3L, 3L, 3L, 3L).add("s2", 3L);
+    ReadStreamProgress progress = streams.progress(5);
+    // The whole response that crosses the limit is returned, but no more are requested
+    assertEquals(6, readAll(progress));
+    assertEquals(2, streams.numResponsesServed);
+    assertEquals(Collections.singletonList("s1"), streams.opened);
+    // The stream is cancelled right away instead of being drained
+    assertEquals(Collections.singletonList("s1"), streams.closed);
+    assertFalse(progress.hasNext());
+  }
+
+  @Test
+  public void testRowLimitSpansStreams() {
+    FakeStreams streams = new FakeStreams().add("s1", 2L).add("s2", 2L, 2L, 2L).add("s3", 2L);
+    ReadStreamProgress progress = streams.progress(5);
+    assertEquals(6, readAll(progress));
+    assertEquals(Arrays.asList("s1", "s2"), streams.opened);
+    assertEquals(Arrays.asList("s1", "s2"), streams.closed);
+  }
+
+  @Test
+  public void testZeroRowLimitOpensNoStream() {
+    FakeStreams streams = new FakeStreams().add("s1", 2L);
+    ReadStreamProgress progress = streams.progress(0);
+    assertFalse(progress.hasNext());
+    assertTrue(streams.opened.isEmpty());
+  }
+
+  @Test
+  public void testCancelUnblocksPendingRead() throws Exception {
+    // Like a gRPC stream, the responses block until they arrive or the stream is cancelled
+    CountDownLatch waiting = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    List<String> opened = Collections.synchronizedList(new ArrayList<>());
+    ReadStreamProgress progress =
+        new ReadStreamProgress(
+            Arrays.asList("s1", "s2"),
+            0,
+            -1,
+            streamName -> {
+              opened.add(streamName);
+              return new ReadStreamProgress.StreamReader() {
+                @Override
+                public Iterator<ReadRowsResponse> readRows() {
+                  return new Iterator<ReadRowsResponse>() {
+                    @Override
+                    public boolean hasNext() {
+                      waiting.countDown();
+                      Uninterruptibles.awaitUninterruptibly(cancelled);
+                      return false;
+                    }
+
+                    @Override
+                    public ReadRowsResponse next() {
+                      throw new NoSuchElementException();
+                    }
+                  };
+                }
+
+                @Override
+                public void close() {
+                  cancelled.countDown();
+                }
+              };
+            });
+    AtomicBoolean hasNext = new AtomicBoolean(true);
+    Thread reader = new Thread(() -> hasNext.set(progress.hasNext()));
+    reader.start();
+    assertTrue(waiting.await(10, TimeUnit.SECONDS));
+    // Must not wait for the reader, which holds the lock while it waits for a response
+    progress.cancel();
+    reader.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(reader.isAlive());
+    assertFalse(hasNext.get());
+    // The remaining streams aren't read
+    assertEquals(Collections.singletonList("s1"), opened);
+    progress.close();
+    assertFalse(progress.hasNext());
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.storage.v1.ArrowSchema;
+import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.hive.bigquery.connector.config.HiveBigQueryConfig;
+import com.google.cloud.hive.bigquery.connector.input.ReadStreamProgress;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.com.google.protobuf.ByteString;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.BigIntVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.FieldVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorUnloader;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.WriteChannel;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.ipc.message.MessageSerializer;
+
+public class ArrowBatchReaderTest {
+
+  private static Configuration newConf() {
+    Configuration conf = new Configuration();
+    conf.set(HiveConf.ConfVars.HIVEQUERYID.varname, "query");
+    return conf;
+  }
+
+  /**
+   * Serializes the given values like the Storage Read API does. The serialized batch is split into
+   * several chunks, like a response that is received in several network buffers.
+   */
+  private static ReadRowsResponse response(BufferAllocator allocator, long... values)
+      throws IOException {
+    BigIntVector vector = new BigIntVector("number", allocator);
+    for (int i = 0; i < values.length; i++) {
+      vector.setSafe(i, values[i]);
+    }
+    try (VectorSchemaRoot root = new VectorSchemaRoot(Arrays.asList((FieldVector) vector))) {
+      root.setRowCount(values.length);
+      ByteArrayOutputStream schema = new ByteArrayOutputStream();
+      MessageSerializer.serialize(new WriteChannel(Channels.newChannel(schema)), root.getSchema());
+      ByteArrayOutputStream batch = new ByteArrayOutputStream();
+      try (ArrowRecordBatch recordBatch = new VectorUnloader(root).getRecordBatch()) {
+        MessageSerializer.serialize(new WriteChannel(Channels.newChannel(batch)), recordBatch);
+      }
+      byte[] batchBytes = batch.toByteArray();
+      ByteString batchData = ByteString.EMPTY;
+      for (int start = 0; start < batchBytes.length; start += 7) {
+        batchData =
+            batchData.concat(
+                ByteString.copyFrom(batchBytes, start, Math.min(7, batchBytes.length - start)));
+      }
+      return ReadRowsResponse.newBuilder()
+          .setRowCount(values.length)
+          .setArrowSchema(
+              ArrowSchema.newBuilder()
+                  .setSerializedSchema(ByteString.copyFrom(schema.toByteArray())))
+          .setArrowRecordBatch(
+              com.google.cloud.bigquery.storage.v1.ArrowRecordBatch.newBuilder()
+                  .setSerializedRecordBatch(batchData)
+                  .setRowCount(values.length))
+          .build();
+    }
+  }
+
+  /** Returns a progress that reads the given responses from a single stream. */
+  private static ReadStreamProgress progress(List<ReadRowsResponse> responses) {
+    return new ReadStreamProgress(
+        Collections.singletonList("stream"),
+        0,
+        -1,
+        streamName ->
+            new ReadStreamProgress.StreamReader() {
+              @Override
+              public Iterator<ReadRowsResponse> readRows() {
+                return responses.iterator();
+              }
+
+              @Override
+              public void close() {}
+            });
+  }
+
+  private static List<Long> values(VectorSchemaRoot root) {
+    BigIntVector vector = (BigIntVector) root.getVector("number");
+    List<Long> values = new ArrayList<>();
+    for (int i = 0; i < root.getRowCount(); i++) {
+      values.add(vector.get(i));
+    }
+    return values;
+  }
+
+  @Test
+  public void testLoadsEveryBatchIntoTheSameRoot() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      List<ReadRowsResponse> responses =
+          Arrays.asList(
+              response(allocator, 1, 2, 3),
+              ReadRowsResponse.newBuilder().build(),
+              response(allocator, 4, 5));
+      ArrowBatchReader reader =
+          new ArrowBatchReader(
+              progress(responses),
+              allocator.newChildAllocator("reader", 0, Long.MAX_VALUE),
+              newConf());
+      assertTrue(reader.nextKeyValue());
+      VectorSchemaRoot root = reader.getCurrentValue();
+      assertEquals(Arrays.asList(1L, 2L, 3L), values(root));
+      // A response without any data leaves the root empty
+      assertTrue(reader.nextKeyValue());
+      assertSame(root, reader.getCurrentValue());
+      assertEquals(0, root.getRowCount());
+      assertTrue(reader.nextKeyValue());
+      assertSame(root, reader.getCurrentValue());
+      assertEquals(Arrays.asList(4L, 5L), values(root));
+      assertFalse(reader.nextKeyValue());
+      reader.close();
+      assertEquals(0, allocator.getAllocatedMemory());
+    }
+  }
+
+  @Test
+  public void testCloseReleasesBatchesDecodedInTheBackground() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      List<ReadRowsResponse> responses = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        responses.add(response(allocator, i, i + 1));
+      }
+      Configuration conf = newConf();
+      conf.set(HiveBigQueryConfig.READ_BACKGROUND_THREADS_KEY, "2");
+      ArrowBatchReader reader =
+          new ArrowBatchReader(
+              progress(responses), allocator.newChildAllocator("reader", 0, Long.MAX_VALUE), conf);
+      // Each batch gets its own root, which is released once the next one is requested
+      assertTrue(reader.nextKeyValue());
+      assertEquals(Arrays.asList(0L, 1L), values(reader.getCurrentValue()));
+      assertTrue(reader.nextKeyValue());
+      assertEquals(Arrays.asList(1L, 2L), values(reader.getCurrentValue()));
+      // Stop before the end, while the following batches are being decoded or waiting
+      reader.close();
+      assertEquals(0, allocator.getAllocatedMemory());
+    }
+  }
+}
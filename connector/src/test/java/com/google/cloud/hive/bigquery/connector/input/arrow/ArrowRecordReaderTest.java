@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.hive.bigquery.connector.input.LazyRow;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.BigIntVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.FieldVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VarCharVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
+
+public class ArrowRecordReaderTest {
+
+  private static final List<String> COLUMN_NAMES = Arrays.asList("name", "number");
+
+  /**
+   * Creates a batch whose vectors are in a different order than the Hive columns. The number of
+   * every third row is null.
+   */
+  private static VectorSchemaRoot createBatch(BufferAllocator allocator, int start, int numRows) {
+    BigIntVector number = new BigIntVector("number", allocator);
+    VarCharVector name = new VarCharVector("name", allocator);
+    for (int i = 0; i < numRows; i++) {
+      if ((start + i) % 3 == 2) {
+        number.setNull(i);
+      } else {
+        number.setSafe(i, start + i);
+      }
+      name.setSafe(i, ("row" + (start + i)).getBytes(StandardCharsets.UTF_8));
+    }
+    List<FieldVector> vectors = Arrays.asList(number, name);
+    VectorSchemaRoot root = new VectorSchemaRoot(vectors);
+    root.setRowCount(numRows);
+    return root;
+  }
+
+  private static void assertRow(int expected, Object[] row) {
+    assertEquals(new Text("row" + expected), row[0]);
+    if (expected % 3 == 2) {
+      assertNull(row[1]);
+    } else {
+      assertEquals(new LongWritable(expected), row[1]);
+    }
+  }
+
+  @Test
+  public void testReusesRowAndWritablesAcrossRows() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      List<VectorSchemaRoot> batches =
+          Arrays.asList(createBatch(allocator, 0, 4), createBatch(allocator, 4, 3));
+      ArrowRecordReader reader =
+          new ArrowRecordReader(
+              new VectorizedArrowRecordReaderTest.FakeBatchReader(batches),
+              COLUMN_NAMES,
+              true,
+              false);
+      ObjectWritable value = reader.createValue();
+      List<Object[]> rows = new ArrayList<>();
+      List<Object> names = new ArrayList<>();
+      List<Object> numbers = new ArrayList<>();
+      int expected = 0;
+      while (reader.next(NullWritable.get(), value)) {
+        Object[] row = (Object[]) value.get();
+        assertRow(expected, row);
+        rows.add(row);
+        names.add(row[0]);
+        if (row[1] != null) {
+          numbers.add(row[1]);
+        }
+        expected++;
+      }
+      assertEquals(7, expected);
+      assertEquals(7, reader.getPos());
+      // The same objects are refilled for every row, even across batches and after null values
+      for (int i = 1; i < rows.size(); i++) {
+        assertSame(rows.get(0), rows.get(i));
+        assertSame(names.get(0), names.get(i));
+      }
+      for (Object number : numbers) {
+        assertSame(numbers.get(0), number);
+      }
+      reader.close();
+      for (VectorSchemaRoot root : batches) {
+        root.close();
+      }
+    }
+  }
+
+  @Test
+  public void testCreatesNewObjectsForEachRowByDefault() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      VectorSchemaRoot batch = createBatch(allocator, 0, 2);
+      ArrowRecordReader reader =
+          new ArrowRecordReader(
+              new VectorizedArrowRecordReaderTest.FakeBatchReader(Arrays.asList(batch)),
+              COLUMN_NAMES,
+              false,
+              false);
+      ObjectWritable value = reader.createValue();
+      assertTrue(reader.next(NullWritable.get(), value));
+      Object[] first = (Object[]) value.get();
+      assertTrue(reader.next(NullWritable.get(), value));
+      Object[] second = (Object[]) value.get();
+      assertFalse(reader.next(NullWritable.get(), value));
+      // Rows that Hive holds on to keep their values
+      assertNotSame(first, second);
+      assertNotSame(first[0], second[0]);
+      assertRow(0, first);
+      assertRow(1, second);
+      reader.close();
+      batch.close();
+    }
+  }
+
+  @Test
+  public void testLazyRowsConvertTheCurrentRow() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      List<VectorSchemaRoot> batches =
+          Arrays.asList(createBatch(allocator, 0, 2), createBatch(allocator, 2, 2));
+      ArrowRecordReader reader =
+          new ArrowRecordReader(
+              new VectorizedArrowRecordReaderTest.FakeBatchReader(batches),
+              COLUMN_NAMES,
+              true,
+              true);
+      ObjectWritable value = reader.createValue();
+      LazyRow firstRow = null;
+      int expected = 0;
+      while (reader.next(NullWritable.get(), value)) {
+        LazyRow row = (LazyRow) value.get();
+        if (firstRow == null) {
+          firstRow = row;
+        }
+        // The same row is pointed at the data of each row in turn, including in later batches
+        assertSame(firstRow, row);
+        if (expected % 2 == 0) {
+          // Hive may only access some of the fields
+          assertEquals(new Text("row" + expected), row.getField(0));
+        } else {
+          assertRow(expected, row.getFields().toArray());
+        }
+        expected++;
+      }
+      assertEquals(4, expected);
+      reader.close();
+      for (VectorSchemaRoot root : batches) {
+        root.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.input.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.metadata.VirtualColumn;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.BigIntVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.FieldVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VarCharVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VectorSchemaRoot;
+
+public class VectorizedArrowRecordReaderTest {
+
+  private static VectorizedRowBatchCtx createContext() {
+    return new VectorizedRowBatchCtx(
+        new String[] {"name", "number"},
+        new TypeInfo[] {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.longTypeInfo},
+        null,
+        null,
+        0,
+        0,
+        new VirtualColumn[0],
+        new String[0],
+        null);
+  }
+
+  /** Creates a batch whose vectors are in a different order than the Hive columns. */
+  private static VectorSchemaRoot createBatch(BufferAllocator allocator, int start, int numRows) {
+    BigIntVector number = new BigIntVector("number", allocator);
+    VarCharVector name = new VarCharVector("name", allocator);
+    for (int i = 0; i < numRows; i++) {
+      number.setSafe(i, start + i);
+      name.setSafe(i, ("row" + (start + i)).getBytes(StandardCharsets.UTF_8));
+    }
+    List<FieldVector> vectors = Arrays.asList(number, name);
+    VectorSchemaRoot root = new VectorSchemaRoot(vectors);
+    root.setRowCount(numRows);
+    return root;
+  }
+
+  @Test
+  public void testSpreadsArrowBatchesOverHiveBatches() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      int numRows = VectorizedRowBatch.DEFAULT_SIZE + 10;
+      List<VectorSchemaRoot> batches =
+          Arrays.asList(createBatch(allocator, 0, numRows), createBatch(allocator, numRows, 5));
+      VectorizedArrowRecordReader reader =
+          new VectorizedArrowRecordReader(new FakeBatchReader(batches), createContext());
+      VectorizedRowBatch batch = reader.createValue();
+      List<Integer> sizes = new ArrayList<>();
+      long expected = 0;
+      while (reader.next(NullWritable.get(), batch)) {
+        sizes.add(batch.size);
+        for (int i = 0; i < batch.size; i++) {
+          assertEquals("row" + expected, ((BytesColumnVector) batch.cols[0]).toString(i));
+          assertEquals(expected, ((LongColumnVector) batch.cols[1]).vector[i]);
+          expected++;
+        }
+      }
+      assertEquals(Arrays.asList(VectorizedRowBatch.DEFAULT_SIZE, 10, 5), sizes);
+      assertEquals(numRows + 5, reader.getPos());
+      assertFalse(reader.next(NullWritable.get(), batch));
+      reader.close();
+      for (VectorSchemaRoot root : batches) {
+        root.close();
+      }
+      assertTrue(allocator.getAllocatedMemory() == 0);
+    }
+  }
+
+  @Test
+  public void testRejectUnknownColumns() throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      BigIntVector unknown = new BigIntVector("unknown", allocator);
+      unknown.setSafe(0, 1);
+      VectorSchemaRoot root = new VectorSchemaRoot(Arrays.asList((FieldVector) unknown));
+      root.setRowCount(1);
+      VectorizedArrowRecordReader reader =
+          new VectorizedArrowRecordReader(
+              new FakeBatchReader(Arrays.asList(root)), createContext());
+      VectorizedRowBatch batch = reader.createValue();
+      RuntimeException exception =
+          assertThrows(RuntimeException.class, () -> reader.next(NullWritable.get(), batch));
+      assertTrue(exception.getMessage().contains("`unknown`"));
+      reader.close();
+      root.close();
+    }
+  }
+
+  static class FakeBatchReader extends RecordReader<NullWritable, VectorSchemaRoot> {
+
+    private final Iterator<VectorSchemaRoot> batches;
+    private VectorSchemaRoot current;
+
+    FakeBatchReader(List<VectorSchemaRoot> batches) {
+      this.batches = batches.iterator();
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {}
+
+    @Override
+    public boolean nextKeyValue() {
+      if (!batches.hasNext()) {
+        return false;
+      }
+      current = batches.next();
+      return true;
+    }
+
+    @Override
+    public NullWritable getCurrentKey() {
+      return NullWritable.get();
+    }
+
+    @Override
+    public VectorSchemaRoot getCurrentValue() {
+      return current;
+    }
+
+    @Override
+    public float getProgress() {
+      return 0;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -16,10 +16,23 @@
 package com.google.cloud.hive.bigquery.connector.output.direct;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.cloud.bigquery.TableId;
+import com.google.cloud.hive.bigquery.connector.BigQuerySerDe;
+import com.google.cloud.hive.bigquery.connector.Constants;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.TaskAttemptID;
 import org.junit.jupiter.api.Test;
 
@@ -44,4 +57,37 @@ public class DirectUtilsTest {
         "/my/workdir/bq-hive-query123/myproject_mydataset_mytable_task__0000_r_000000.stream",
         path.toString());
   }
+
+  private static StructObjectInspector pseudoColumnTableInspector() {
+    Properties tableProperties = new Properties();
+    tableProperties.setProperty(
+        serdeConstants.LIST_COLUMNS, "name,_partitiontime,number,_partitiondate");
+    tableProperties.setProperty(serdeConstants.LIST_COLUMN_TYPES, "string:timestamp:bigint:date");
+    return BigQuerySerDe.getRowObjectInspector(tableProperties);
+  }
+
+  @Test
+  public void testPartitionPseudoColumnsAreNotWritten() {
+    StructObjectInspector writtenInspector =
+        DirectUtils.getWrittenRowObjectInspector(pseudoColumnTableInspector());
+    List<String> writtenColumns =
+        writtenInspector.getAllStructFieldRefs().stream()
+            .map(StructField::getFieldName)
+            .collect(Collectors.toList());
+    assertEquals(Arrays.asList("name", "number"), writtenColumns);
+    Object[] row = {new Text("hello"), null, new LongWritable(42), null};
+    assertEquals(
+        Arrays.asList(new Text("hello"), new LongWritable(42)),
+        DirectUtils.getWrittenValues(pseudoColumnTableInspector(), row));
+  }
+
+  @Test
+  public void testRejectWrittenPartitionPseudoColumnValues() {
+    Object[] row = {new Text("hello"), null, new LongWritable(42), new Object()};
+    RuntimeException exception =
+        assertThrows(
+            RuntimeException.class,
+            () -> DirectUtils.getWrittenValues(pseudoColumnTableInspector(), row));
+    assertTrue(exception.getMessage().contains(Constants.PARTITION_DATE_PSEUDO_COLUMN));
+  }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class PipelinedIteratorTest {
+
+  private static Iterator<Integer> range(int count) {
+    return IntStream.range(0, count).boxed().collect(Collectors.toList()).iterator();
+  }
+
+  @Test
+  public void testPreservesOrder() {
+    Random random = new Random(0);
+    List<Integer> delays = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      delays.add(random.nextInt(5));
+    }
+    List<String> results = new ArrayList<>();
+    try (PipelinedIterator<Integer, String> iterator =
+        new PipelinedIterator<>(
+            range(delays.size()),
+            i -> {
+              sleep(delays.get(i));
+              return "element" + i;
+            },
+            4,
+            8,
+            element -> {},
+            "test")) {
+      iterator.forEachRemaining(results::add);
+      assertFalse(iterator.hasNext());
+    }
+    assertEquals(
+        IntStream.range(0, delays.size()).mapToObj(i -> "element" + i).collect(Collectors.toList()),
+        results);
+  }
+
+  @Test
+  public void testPropagatesTransformErrors() {
+    IllegalStateException error = new IllegalStateException("Cannot transform");
+    try (PipelinedIterator<Integer, Integer> iterator =
+        new PipelinedIterator<>(
+            range(5),
+            i -> {
+              if (i == 2) {
+                throw error;
+              }
+              return i;
+            },
+            2,
+            4,
+            element -> {},
+            "test")) {
+      assertEquals(0, iterator.next());
+      assertEquals(1, iterator.next());
+      assertSame(error, assertThrows(IllegalStateException.class, iterator::next));
+    }
+  }
+
+  @Test
+  public void testPropagatesSourceErrors() {
+    Iterator<Integer> source =
+        new Iterator<Integer>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return true;
+          }
+
+          @Override
+          public Integer next() {
+            if (next == 1) {
+              throw new IllegalStateException("Cannot read");
+            }
+            return next++;
+          }
+        };
+    try (PipelinedIterator<Integer, Integer> iterator =
+        new PipelinedIterator<>(source, i -> i, 1, 2, element -> {}, "test")) {
+      assertEquals(0, iterator.next());
+      assertTrue(iterator.hasNext());
+      RuntimeException e = assertThrows(RuntimeException.class, iterator::next);
+      assertEquals("Cannot read", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCloseReleasesElementsStillBeingTransformed() throws Exception {
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch finish = new CountDownLatch(1);
+    AtomicInteger transformed = new AtomicInteger();
+    AtomicInteger released = new AtomicInteger();
+    PipelinedIterator<Integer, Integer> iterator =
+        new PipelinedIterator<>(
+            range(10),
+            i -> {
+              started.countDown();
+              awaitUninterruptibly(finish);
+              transformed.incrementAndGet();
+              return i;
+            },
+            2,
+            4,
+            element -> released.incrementAndGet(),
+            "test");
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Thread closer = new Thread(iterator::close);
+    closer.start();
+    closer.join(200);
+    // The elements being transformed haven't been released yet, so closing must wait for them
+    assertTrue(closer.isAlive());
+    finish.countDown();
+    closer.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(closer.isAlive());
+    assertTrue(transformed.get() >= 2);
+    assertEquals(transformed.get(), released.get());
+  }
+
+  @Test
+  public void testProducerReleasesElementsWhenCloseTimesOut() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    AtomicInteger transformed = new AtomicInteger();
+    AtomicInteger released = new AtomicInteger();
+    PipelinedIterator<Integer, Integer> iterator =
+        new PipelinedIterator<>(
+            range(10),
+            i -> {
+              if (i > 0) {
+                started.countDown();
+                awaitUninterruptibly(finish);
+              }
+              transformed.incrementAndGet();
+              return i;
+            },
+            2,
+            1,
+            element -> released.incrementAndGet(),
+            "test",
+            100);
+    assertTrue(iterator.hasNext());
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // The producer is stuck on an element that is still being transformed, so closing gives up
+    // waiting for it
+    Thread closer = new Thread(iterator::close);
+    closer.start();
+    closer.join(500);
+    finish.countDown();
+    closer.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(closer.isAlive());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while ((transformed.get() < 2 || released.get() < transformed.get())
+        && System.nanoTime() < deadline) {
+      sleep(10);
+    }
+    assertTrue(transformed.get() >= 2);
+    assertEquals(transformed.get(), released.get());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    while (true) {
+      try {
+        latch.await();
+        return;
+      } catch (InterruptedException e) {
+        // Keep waiting, like a transform that doesn't respond to interruptions
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+public class TableInfoCacheTest {
+
+  private static final List<Object> CONNECTION = Collections.singletonList("credentials");
+  private static final long NOW_MILLIS = TimeUnit.DAYS.toMillis(20000);
+
+  private static class CountingFetcher implements Function<TableId, TableInfo> {
+    final AtomicInteger numCalls = new AtomicInteger();
+
+    @Override
+    public TableInfo apply(TableId tableId) {
+      numCalls.incrementAndGet();
+      return TableInfo.of(tableId, StandardTableDefinition.of(Schema.of()));
+    }
+  }
+
+  private static TableInfo get(
+      CountingFetcher fetcher,
+      List<Object> connectionKey,
+      TableId tableId,
+      int expirationTimeInMinutes,
+      long nowMillis) {
+    return TableInfoCache.getTable(
+        fetcher, connectionKey, tableId, expirationTimeInMinutes, nowMillis);
+  }
+
+  @Test
+  public void testHit() {
+    TableId tableId = TableId.of("project", "dataset", "hit");
+    CountingFetcher fetcher = new CountingFetcher();
+    TableInfo tableInfo = get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS);
+    assertSame(tableInfo, get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS + 1000));
+    assertEquals(1, fetcher.numCalls.get());
+  }
+
+  @Test
+  public void testExpiry() {
+    TableId tableId = TableId.of("project", "dataset", "expiry");
+    CountingFetcher fetcher = new CountingFetcher();
+    get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS);
+    get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS + TimeUnit.MINUTES.toMillis(10));
+    assertEquals(2, fetcher.numCalls.get());
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    TableId tableId = TableId.of("project", "dataset", "disabled");
+    CountingFetcher fetcher = new CountingFetcher();
+    get(fetcher, CONNECTION, tableId, 0, NOW_MILLIS);
+    get(fetcher, CONNECTION, tableId, 0, NOW_MILLIS);
+    assertEquals(2, fetcher.numCalls.get());
+  }
+
+  @Test
+  public void testSeparateConnections() {
+    TableId tableId = TableId.of("project", "dataset", "connections");
+    CountingFetcher fetcher = new CountingFetcher();
+    get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS);
+    get(fetcher, Arrays.asList("other", "credentials"), tableId, 10, NOW_MILLIS);
+    assertEquals(2, fetcher.numCalls.get());
+  }
+
+  @Test
+  public void testInvalidation() {
+    TableId tableId = TableId.of("project", "dataset", "invalidation");
+    List<Object> otherConnection = Collections.singletonList("other");
+    CountingFetcher fetcher = new CountingFetcher();
+    get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS);
+    get(fetcher, otherConnection, tableId, 10, NOW_MILLIS);
+    TableInfoCache.invalidate(tableId);
+    get(fetcher, CONNECTION, tableId, 10, NOW_MILLIS);
+    get(fetcher, otherConnection, tableId, 10, NOW_MILLIS);
+    assertEquals(4, fetcher.numCalls.get());
+  }
+
+  @Test
+  public void testMissingTableIsNotCached() {
+    TableId tableId = TableId.of("project", "dataset", "missing");
+    AtomicInteger numCalls = new AtomicInteger();
+    Function<TableId, TableInfo> fetcher =
+        id -> {
+          numCalls.incrementAndGet();
+          return null;
+        };
+    assertNull(TableInfoCache.getTable(fetcher, CONNECTION, tableId, 10, NOW_MILLIS));
+    assertNull(TableInfoCache.getTable(fetcher, CONNECTION, tableId, 10, NOW_MILLIS));
+    assertEquals(2, numCalls.get());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.io.airlift.compress.lz4.Lz4Compressor;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.ArrowBuf;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.CompressionCodec;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.compression.CompressionUtil;
+
+public class ArrowCompressionCodecFactoryTest {
+
+  // Flags (version 01, content checksum), with either linked or independent blocks
+  private static final byte LINKED_BLOCKS = 0x44;
+  private static final byte INDEPENDENT_BLOCKS = 0x64;
+
+  private static byte[] frame(byte flags, byte[]... blocks) {
+    int size = 7 + 4 + 4;
+    for (byte[] block : blocks) {
+      size += block.length;
+    }
+    ByteBuffer frame = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    // Magic number, flags, block descriptor, header checksum
+    frame.putInt(0x184D2204).put(flags).put((byte) 0x40).put((byte) 0);
+    for (byte[] block : blocks) {
+      frame.put(block);
+    }
+    // End mark (0) followed by an unchecked content checksum
+    return frame.array();
+  }
+
+  private static byte[] block(boolean compressed, byte[] data) {
+    ByteBuffer block = ByteBuffer.allocate(4 + data.length).order(ByteOrder.LITTLE_ENDIAN);
+    block.putInt(compressed ? data.length : data.length | 0x80000000).put(data);
+    return block.array();
+  }
+
+  private static byte[] decompress(byte[] frame, int decompressedLength) {
+    ByteBuffer output = ByteBuffer.allocate(decompressedLength);
+    ArrowCompressionCodecFactory.decompressLz4Frame(ByteBuffer.wrap(frame), output);
+    return output.array();
+  }
+
+  @Test
+  public void testDecompressLz4Frame() {
+    byte[] frame =
+        frame(
+            LINKED_BLOCKS,
+            block(false, "abc".getBytes(StandardCharsets.UTF_8)),
+            // A match of 9 bytes at offset 3, which points into the previous block, followed by
+            // the literals "vwxyz"
+            block(true, new byte[] {0x05, 0x03, 0x00, 0x50, 'v', 'w', 'x', 'y', 'z'}));
+    byte[] expected = "abcabcabcabcvwxyz".getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expected, decompress(frame, expected.length));
+  }
+
+  @Test
+  public void testDecompressLinkedBlockAtMaxOffset() {
+    byte[] first = new byte[70_000];
+    new Random(0).nextBytes(first);
+    byte[] frame =
+        frame(
+            LINKED_BLOCKS,
+            block(false, first),
+            // A literal, then a match of 20 bytes at the maximum offset, then 5 literals
+            block(
+                true,
+                new byte[] {
+                  0x1F, 'a', (byte) 0xFF, (byte) 0xFF, 0x01, 0x50, 'v', 'w', 'x', 'y', 'z'
+                }));
+    byte[] expected = new byte[first.length + 1 + 20 + 5];
+    System.arraycopy(first, 0, expected, 0, first.length);
+    expected[first.length] = 'a';
+    int matchStart = first.length + 1 - 0xFFFF;
+    System.arraycopy(first, matchStart, expected, first.length + 1, 20);
+    System.arraycopy("vwxyz".getBytes(StandardCharsets.UTF_8), 0, expected, expected.length - 5, 5);
+    assertArrayEquals(expected, decompress(frame, expected.length));
+  }
+
+  @Test
+  public void testDecompressIndependentBlocks() {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    Lz4Compressor compressor = new Lz4Compressor();
+    byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+    int compressedLength =
+        compressor.compress(data, 0, data.length, compressed, 0, compressed.length);
+    byte[] block = block(true, Arrays.copyOf(compressed, compressedLength));
+    byte[] frame = frame(INDEPENDENT_BLOCKS, block, block);
+    byte[] expected = new byte[2 * data.length];
+    System.arraycopy(data, 0, expected, 0, data.length);
+    System.arraycopy(data, 0, expected, data.length, data.length);
+    assertArrayEquals(expected, decompress(frame, expected.length));
+  }
+
+  @Test
+  public void testDecompressArrowBuffer() {
+    byte[] frame = frame(LINKED_BLOCKS, block(false, "abc".getBytes(StandardCharsets.UTF_8)));
+    CompressionCodec codec =
+        new ArrowCompressionCodecFactory().createCodec(CompressionUtil.CodecType.LZ4_FRAME);
+    try (BufferAllocator allocator = new RootAllocator()) {
+      ArrowBuf compressed =
+          allocator.buffer(CompressionUtil.SIZE_OF_UNCOMPRESSED_LENGTH + frame.length);
+      compressed.writeLong(3);
+      compressed.writeBytes(frame);
+      try (ArrowBuf decompressed = codec.decompress(allocator, compressed)) {
+        byte[] output = new byte[3];
+        decompressed.getBytes(0, output);
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), output);
+      }
+    }
+  }
+
+  @Test
+  public void testDecompressLz4FrameWithWrongSize() {
+    byte[] frame = frame(LINKED_BLOCKS, block(false, "abc".getBytes(StandardCharsets.UTF_8)));
+    assertThrows(IllegalArgumentException.class, () -> decompress(frame, 4));
+    assertThrows(IllegalArgumentException.class, () -> decompress(frame, 2));
+  }
+}
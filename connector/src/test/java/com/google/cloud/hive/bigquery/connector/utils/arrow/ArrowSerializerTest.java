@@ -0,0 +1,269 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.serde2.io.DateWritableV2;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritableV2;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.BigIntVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.DateDayVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.DecimalVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.TimeStampMicroTZVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.TimeStampMicroVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.TimeStampVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VarCharVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.ListVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.StructVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.impl.UnionListWriter;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.writer.BaseWriter.StructWriter;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.types.TimeUnit;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.types.pojo.ArrowType;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.types.pojo.FieldType;
+
+public class ArrowSerializerTest {
+
+  @Test
+  public void testListSlicesPerRow() {
+    try (BufferAllocator allocator = new RootAllocator();
+        ListVector vector = ListVector.empty("list", allocator)) {
+      UnionListWriter writer = vector.getWriter();
+      writeList(writer, 0, 1L, 2L);
+      writeList(writer, 1);
+      writeList(writer, 2, 3L, 4L, 5L);
+      vector.setNull(3);
+      vector.setValueCount(4);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      assertArrayEquals(
+          new Object[] {new LongWritable(1), new LongWritable(2)},
+          (Object[]) converter.convert(0, null));
+      assertArrayEquals(new Object[0], (Object[]) converter.convert(1, null));
+      assertArrayEquals(
+          new Object[] {new LongWritable(3), new LongWritable(4), new LongWritable(5)},
+          (Object[]) converter.convert(2, null));
+      assertNull(converter.convert(3, null));
+    }
+  }
+
+  @Test
+  public void testTextReusesWritable() {
+    try (BufferAllocator allocator = new RootAllocator();
+        VarCharVector vector = new VarCharVector("text", allocator)) {
+      String[] values = {"a longer value", "", "short"};
+      for (int i = 0; i < values.length; i++) {
+        vector.setSafe(i, values[i].getBytes(StandardCharsets.UTF_8));
+      }
+      vector.setNull(3);
+      vector.setValueCount(4);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      Text reuse = new Text();
+      for (int i = 0; i < values.length; i++) {
+        Object converted = converter.convert(i, reuse);
+        assertSame(reuse, converted);
+        assertEquals(values[i], converted.toString());
+      }
+      assertNull(converter.convert(3, reuse));
+    }
+  }
+
+  @Test
+  public void testStructReadsRequestedRow() {
+    try (BufferAllocator allocator = new RootAllocator();
+        StructVector vector = StructVector.empty("struct", allocator)) {
+      BigIntVector number =
+          vector.addOrGet(
+              "number", FieldType.nullable(new ArrowType.Int(64, true)), BigIntVector.class);
+      VarCharVector text =
+          vector.addOrGet("text", FieldType.nullable(new ArrowType.Utf8()), VarCharVector.class);
+      for (int i = 0; i < 3; i++) {
+        vector.setIndexDefined(i);
+        number.setSafe(i, i * 10L);
+        text.setSafe(i, ("row" + i).getBytes(StandardCharsets.UTF_8));
+      }
+      vector.setValueCount(3);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      for (int i = 0; i < 3; i++) {
+        assertArrayEquals(
+            new Object[] {new LongWritable(i * 10L), new Text("row" + i)},
+            (Object[]) converter.convert(i, null));
+      }
+    }
+  }
+
+  @Test
+  public void testListOfStructs() {
+    try (BufferAllocator allocator = new RootAllocator();
+        ListVector vector = ListVector.empty("list", allocator)) {
+      UnionListWriter writer = vector.getWriter();
+      long value = 0;
+      for (int row = 0; row < 3; row++) {
+        writer.setPosition(row);
+        writer.startList();
+        // Row N contains N + 1 structs
+        for (int i = 0; i <= row; i++) {
+          StructWriter structWriter = writer.struct();
+          structWriter.start();
+          structWriter.bigInt("number").writeBigInt(value++);
+          structWriter.end();
+        }
+        writer.endList();
+      }
+      writer.setValueCount(3);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      Object[] lastRow = (Object[]) converter.convert(2, null);
+      assertArrayEquals(
+          new Object[] {
+            new Object[] {new LongWritable(3)},
+            new Object[] {new LongWritable(4)},
+            new Object[] {new LongWritable(5)}
+          },
+          lastRow);
+      assertArrayEquals(
+          new Object[] {new Object[] {new LongWritable(0)}}, (Object[]) converter.convert(0, null));
+    }
+  }
+
+  @Test
+  public void testDates() {
+    try (BufferAllocator allocator = new RootAllocator();
+        DateDayVector vector = new DateDayVector("date", allocator)) {
+      // 1970-01-01, 2022-01-01, 1969-12-31 and 0001-01-01
+      int[] days = {0, 18993, -1, -719162};
+      for (int i = 0; i < days.length; i++) {
+        vector.setSafe(i, days[i]);
+      }
+      vector.setNull(days.length);
+      vector.setValueCount(days.length + 1);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      DateWritableV2 reuse = new DateWritableV2();
+      for (int i = 0; i < days.length; i++) {
+        Object converted = converter.convert(i, reuse);
+        assertSame(reuse, converted);
+        assertEquals(days[i], reuse.getDays());
+      }
+      assertEquals("0001-01-01", reuse.get().toString());
+      assertNull(converter.convert(days.length, reuse));
+    }
+  }
+
+  @Test
+  public void testTimestamps() {
+    try (BufferAllocator allocator = new RootAllocator();
+        TimeStampMicroTZVector vector =
+            new TimeStampMicroTZVector(
+                "timestamp",
+                FieldType.nullable(new ArrowType.Timestamp(TimeUnit.MICROSECOND, "UTC")),
+                allocator)) {
+      assertTimestamps(vector);
+    }
+  }
+
+  @Test
+  public void testDatetimes() {
+    // BigQuery's DATETIME values don't have a time zone
+    try (BufferAllocator allocator = new RootAllocator();
+        TimeStampMicroVector vector = new TimeStampMicroVector("datetime", allocator)) {
+      assertTimestamps(vector);
+    }
+  }
+
+  private static void assertTimestamps(TimeStampVector vector) {
+    long[] micros = {
+      0, 1_500_000, -1, -1_500_000, -62_135_596_800_000_000L, 253_402_300_799_999_999L
+    };
+    String[] expected = {
+      "1970-01-01 00:00:00",
+      "1970-01-01 00:00:01.5",
+      "1969-12-31 23:59:59.999999",
+      "1969-12-31 23:59:58.5",
+      "0001-01-01 00:00:00",
+      "9999-12-31 23:59:59.999999"
+    };
+    for (int i = 0; i < micros.length; i++) {
+      vector.setSafe(i, micros[i]);
+    }
+    vector.setNull(micros.length);
+    vector.setValueCount(micros.length + 1);
+    ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+    TimestampWritableV2 reuse = new TimestampWritableV2();
+    for (int i = 0; i < micros.length; i++) {
+      Object converted = converter.convert(i, reuse);
+      assertSame(reuse, converted);
+      assertEquals(expected[i], reuse.getTimestamp().toString());
+    }
+    assertNull(converter.convert(micros.length, reuse));
+  }
+
+  @Test
+  public void testDecimalsAroundLongBoundary() {
+    // Unscaled values that fit in a long take the fast path, the others go through a BigDecimal
+    BigInteger maxLong = BigInteger.valueOf(Long.MAX_VALUE);
+    BigInteger minLong = BigInteger.valueOf(Long.MIN_VALUE);
+    BigInteger[] unscaledValues = {
+      BigInteger.ZERO,
+      BigInteger.valueOf(-1),
+      maxLong,
+      minLong,
+      maxLong.add(BigInteger.ONE),
+      minLong.subtract(BigInteger.ONE),
+      BigInteger.TEN.pow(38).subtract(BigInteger.ONE),
+      BigInteger.TEN.pow(38).subtract(BigInteger.ONE).negate(),
+      // Back to the fast path, so that the reused writable is overwritten
+      BigInteger.valueOf(-12345)
+    };
+    try (BufferAllocator allocator = new RootAllocator();
+        DecimalVector vector = new DecimalVector("decimal", allocator, 38, 9)) {
+      for (int i = 0; i < unscaledValues.length; i++) {
+        vector.setSafe(i, new BigDecimal(unscaledValues[i], 9));
+      }
+      vector.setNull(unscaledValues.length);
+      vector.setValueCount(unscaledValues.length + 1);
+      ArrowSerializer.Converter converter = ArrowSerializer.createConverter(vector);
+      HiveDecimalWritable reuse = new HiveDecimalWritable();
+      for (int i = 0; i < unscaledValues.length; i++) {
+        Object converted = converter.convert(i, reuse);
+        assertSame(reuse, converted);
+        assertEquals(
+            HiveDecimal.create(new BigDecimal(unscaledValues[i], 9)),
+            reuse.getHiveDecimal(),
+            unscaledValues[i].toString());
+      }
+      assertNull(converter.convert(unscaledValues.length, reuse));
+    }
+  }
+
+  private static void writeList(UnionListWriter writer, int row, long... values) {
+    writer.setPosition(row);
+    writer.startList();
+    for (long value : values) {
+      writer.writeBigInt(value);
+    }
+    writer.endList();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.ArrowBuf;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+
+public class ArrowUtilsTest {
+
+  @Test
+  public void testReadersShareTheProcessWideAllocator() {
+    Configuration conf = new Configuration();
+    long before = ArrowUtils.getAllocatedMemory();
+    try (BufferAllocator first = ArrowUtils.createChildAllocator(conf, "first");
+        BufferAllocator second = ArrowUtils.createChildAllocator(conf, "second")) {
+      // Each reader may use up to the process-wide limit, which is enforced across all of them
+      assertSame(first.getParentAllocator(), second.getParentAllocator());
+      assertEquals(first.getParentAllocator().getLimit(), first.getLimit());
+      try (ArrowBuf firstBuffer = first.buffer(1024);
+          ArrowBuf secondBuffer = second.buffer(2048)) {
+        long allocated = first.getAllocatedMemory() + second.getAllocatedMemory();
+        assertTrue(allocated >= 3072);
+        assertEquals(before + allocated, ArrowUtils.getAllocatedMemory());
+        assertTrue(ArrowUtils.getPeakMemoryAllocation() >= before + allocated);
+      }
+      assertEquals(0, first.getAllocatedMemory());
+      assertEquals(0, second.getAllocatedMemory());
+    }
+    // Closing the readers' allocators releases their memory
+    assertEquals(before, ArrowUtils.getAllocatedMemory());
+  }
+}
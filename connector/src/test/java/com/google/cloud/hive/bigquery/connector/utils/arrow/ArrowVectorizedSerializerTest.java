@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hive.bigquery.connector.utils.arrow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ListColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampColumnVector;
+import org.junit.jupiter.api.Test;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.BufferAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.memory.RootAllocator;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.BigIntVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.DecimalVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.TimeStampMicroTZVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.VarCharVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.ListVector;
+import repackaged.by.hivebqconnector.org.apache.arrow.vector.complex.impl.UnionListWriter;
+
+public class ArrowVectorizedSerializerTest {
+
+  @Test
+  public void testLongsWithNullsFromOffset() {
+    try (BufferAllocator allocator = new RootAllocator();
+        BigIntVector vector = new BigIntVector("number", allocator)) {
+      vector.setSafe(0, 10L);
+      vector.setSafe(1, 11L);
+      vector.setNull(2);
+      vector.setSafe(3, 13L);
+      vector.setValueCount(4);
+      LongColumnVector columnVector = new LongColumnVector();
+      ArrowVectorizedSerializer.serializeVector(vector, 1, 3, columnVector);
+      assertFalse(columnVector.noNulls);
+      assertEquals(11L, columnVector.vector[0]);
+      assertTrue(columnVector.isNull[1]);
+      assertFalse(columnVector.isNull[2]);
+      assertEquals(13L, columnVector.vector[2]);
+    }
+  }
+
+  @Test
+  public void testStringsReferenceSlice() {
+    try (BufferAllocator allocator = new RootAllocator();
+        VarCharVector vector = new VarCharVector("text", allocator)) {
+      String[] values = {"a", "bc", "def"};
+      for (int i = 0; i < values.length; i++) {
+        vector.setSafe(i, values[i].getBytes(StandardCharsets.UTF_8));
+      }
+      vector.setValueCount(values.length);
+      BytesColumnVector columnVector = new BytesColumnVector();
+      ArrowVectorizedSerializer.serializeVector(vector, 1, 2, columnVector);
+      assertTrue(columnVector.noNulls);
+      assertEquals("bc", columnVector.toString(0));
+      assertEquals("def", columnVector.toString(1));
+    }
+  }
+
+  @Test
+  public void testDecimals() {
+    try (BufferAllocator allocator = new RootAllocator();
+        DecimalVector vector = new DecimalVector("decimal", allocator, 38, 2)) {
+      vector.setSafe(0, new BigDecimal("-12.34"));
+      // Doesn't fit in a long, so it goes through a BigDecimal
+      vector.setSafe(1, new BigDecimal("123456789012345678901234.56"));
+      // Doesn't fit in the Hive column's precision
+      vector.setSafe(2, new BigDecimal("1000.00"));
+      vector.setValueCount(3);
+      DecimalColumnVector columnVector = new DecimalColumnVector(30, 2);
+      columnVector.precision = 5;
+      ArrowVectorizedSerializer.serializeVector(vector, 0, 3, columnVector);
+      assertEquals(HiveDecimal.create("-12.34"), columnVector.vector[0].getHiveDecimal());
+      assertTrue(columnVector.isNull[1]);
+      assertTrue(columnVector.isNull[2]);
+      DecimalColumnVector wideColumnVector = new DecimalColumnVector(38, 2);
+      ArrowVectorizedSerializer.serializeVector(vector, 0, 2, wideColumnVector);
+      assertEquals(
+          HiveDecimal.create("123456789012345678901234.56"),
+          wideColumnVector.vector[1].getHiveDecimal());
+    }
+  }
+
+  @Test
+  public void testTimestampsBeforeEpoch() {
+    try (BufferAllocator allocator = new RootAllocator();
+        TimeStampMicroTZVector vector = new TimeStampMicroTZVector("ts", allocator, "UTC")) {
+      vector.setSafe(0, -1L);
+      vector.setValueCount(1);
+      TimestampColumnVector columnVector = new TimestampColumnVector();
+      ArrowVectorizedSerializer.serializeVector(vector, 0, 1, columnVector);
+      assertEquals(-1L, columnVector.time[0]);
+      assertEquals(999_999_000, columnVector.nanos[0]);
+    }
+  }
+
+  @Test
+  public void testListsFromOffset() {
+    try (BufferAllocator allocator = new RootAllocator();
+        ListVector vector = ListVector.empty("list", allocator)) {
+      UnionListWriter writer = vector.getWriter();
+      long[][] rows = {{1L}, {2L, 3L}, {}, {4L}};
+      for (int row = 0; row < rows.length; row++) {
+        writer.setPosition(row);
+        writer.startList();
+        for (long value : rows[row]) {
+          writer.writeBigInt(value);
+        }
+        writer.endList();
+      }
+      writer.setValueCount(rows.length);
+      ListColumnVector columnVector = new ListColumnVector(4, new LongColumnVector());
+      ArrowVectorizedSerializer.serializeVector(vector, 1, 3, columnVector);
+      assertEquals(3, columnVector.childCount);
+      assertEquals(0, columnVector.offsets[0]);
+      assertEquals(2, columnVector.lengths[0]);
+      assertEquals(0, columnVector.lengths[1]);
+      assertEquals(2, columnVector.offsets[2]);
+      LongColumnVector child = (LongColumnVector) columnVector.child;
+      assertEquals(2L, child.vector[0]);
+      assertEquals(3L, child.vector[1]);
+      assertEquals(4L, child.vector[2]);
+    }
+  }
+}